@@ -0,0 +1,63 @@
+package com.epolyakov.ffdec4idea.benchmarks;
+
+import com.epolyakov.ffdec4idea.cli.LocalSwfFile;
+import com.epolyakov.ffdec4idea.vfs.SwfHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time from the handler construction to the first listing of the classes for swf files with
+ * many sprites, with the code-only load and with the full parsing of the swf.
+ *
+ * @author epolyakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dffdec4idea.persistentCache.enabled=false")
+public class CodeOnlyLoadBenchmark {
+
+    @Param({"0", "2000"})
+    public int spriteCount;
+
+    @Param({"true", "false"})
+    public boolean codeOnly;
+
+    private File file;
+    private LocalSwfFile swfFile;
+
+    @Setup
+    public void generate() throws IOException {
+        System.setProperty("ffdec4idea.codeOnlyLoad.enabled", Boolean.toString(codeOnly));
+        file = File.createTempFile("synthetic", ".swf");
+        new SyntheticSwfGenerator(200, 2, 4, 5, 1, spriteCount, 50).generate(file.toPath());
+        swfFile = new LocalSwfFile(file);
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public String[] firstTree() {
+        return new SwfHandler(swfFile).getRootContents();
+    }
+}
@@ -0,0 +1,63 @@
+package com.epolyakov.ffdec4idea.benchmarks;
+
+import com.epolyakov.ffdec4idea.vfs.SwfHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the decompiled sources of a loaded swf file. The sources are decompiled on each call when the source
+ * cache is disabled, or taken from the in-memory cache after the first round otherwise.
+ * The persistent cache is disabled in both cases.
+ *
+ * @author epolyakov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DecompileBenchmark {
+
+    private SwfHandler handler;
+    private String[] classNames;
+    private int index;
+
+    @Setup
+    public void load(SyntheticSwfState state) throws IOException {
+        handler = new SwfHandler(state.swfFile);
+        handler.getSwf();
+        classNames = state.classNames;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {
+            "-Dffdec4idea.persistentCache.enabled=false",
+            "-Dffdec4idea.sourceCache.maxBytes=0"})
+    public byte[] decompile() throws IOException {
+        return handler.contentsToByteArray(nextClassName());
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dffdec4idea.persistentCache.enabled=false")
+    public byte[] cached() throws IOException {
+        return handler.contentsToByteArray(nextClassName());
+    }
+
+    private String nextClassName() {
+        if (index >= classNames.length) {
+            index = 0;
+        }
+        return classNames[index++];
+    }
+}
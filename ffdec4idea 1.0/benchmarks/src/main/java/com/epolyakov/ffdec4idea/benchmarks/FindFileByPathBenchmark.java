@@ -0,0 +1,54 @@
+package com.epolyakov.ffdec4idea.benchmarks;
+
+import com.epolyakov.ffdec4idea.vfs.DecompiledSwfFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookups of the decompiled files by their paths from several threads at once. The swf file is
+ * mounted before the measurement, so the lookups walk the file tree which is shared by the threads.
+ *
+ * @author epolyakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dffdec4idea.persistentCache.enabled=false")
+@Threads(4)
+public class FindFileByPathBenchmark {
+
+    private DecompiledSwfFileSystem fileSystem;
+    private String[] paths;
+
+    @Setup
+    public void mount(SyntheticSwfState state) throws IOException {
+        fileSystem = new DecompiledSwfFileSystem();
+        fileSystem.getSwf(state.swfFile);
+        String[] names = state.getAllNames();
+        paths = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            paths[i] = state.swfFile.getPath() + DecompiledSwfFileSystem.PATH_SEPARATOR + names[i].replace('.', '/');
+        }
+    }
+
+    @Benchmark
+    public VirtualFile findFileByPath() {
+        return fileSystem.findFileByPath(paths[ThreadLocalRandom.current().nextInt(paths.length)]);
+    }
+}
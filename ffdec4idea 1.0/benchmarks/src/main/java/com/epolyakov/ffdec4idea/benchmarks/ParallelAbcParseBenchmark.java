@@ -0,0 +1,64 @@
+package com.epolyakov.ffdec4idea.benchmarks;
+
+import com.epolyakov.ffdec4idea.cli.LocalSwfFile;
+import com.epolyakov.ffdec4idea.vfs.SwfHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time from the handler construction to the first listing of the classes for swf files whose classes
+ * are spread over many DoABC tags, with the tags parsed in parallel and one after another. The number of threads
+ * is set by -Dffdec4idea.parallelism in the JMH options.
+ *
+ * @author epolyakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dffdec4idea.persistentCache.enabled=false")
+public class ParallelAbcParseBenchmark {
+
+    @Param({"1", "400"})
+    public int abcTagCount;
+
+    @Param({"true", "false"})
+    public boolean parallel;
+
+    private File file;
+    private LocalSwfFile swfFile;
+
+    @Setup
+    public void generate() throws IOException {
+        System.setProperty("ffdec4idea.parallelAbcParse.enabled", Boolean.toString(parallel));
+        file = File.createTempFile("synthetic", ".swf");
+        new SyntheticSwfGenerator(4000, 2, 4, 20, abcTagCount).generate(file.toPath());
+        swfFile = new LocalSwfFile(file);
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public String[] firstTree() {
+        return new SwfHandler(swfFile).getRootContents();
+    }
+}
@@ -0,0 +1,32 @@
+package com.epolyakov.ffdec4idea.benchmarks;
+
+import com.epolyakov.ffdec4idea.vfs.SwfHandler;
+import com.jpexs.decompiler.flash.SWF;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the loading of the swf file: the handler construction and the parsing of the swf until it is ready.
+ *
+ * @author epolyakov
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dffdec4idea.persistentCache.enabled=false")
+public class SwfLoadBenchmark {
+
+    @Benchmark
+    public SWF load(SyntheticSwfState state) throws IOException {
+        return new SwfHandler(state.swfFile).getSwf();
+    }
+}
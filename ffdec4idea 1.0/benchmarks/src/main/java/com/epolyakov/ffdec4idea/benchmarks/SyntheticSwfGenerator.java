@@ -0,0 +1,393 @@
+package com.epolyakov.ffdec4idea.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds synthetic AS3 swf files with the given number of classes and package depth.
+ * Every class extends Object and has a constructor and a number of small methods, so the files
+ * can be parsed and decompiled by ffdec without any real Flash tooling. The files may also carry
+ * sprites that stand for the assets of real swf files.
+ *
+ * @author epolyakov
+ */
+public class SyntheticSwfGenerator {
+
+    private static final int TAG_END = 0;
+    private static final int TAG_SHOW_FRAME = 1;
+    private static final int TAG_DEFINE_SPRITE = 39;
+    private static final int TAG_FILE_ATTRIBUTES = 69;
+    private static final int TAG_SYMBOL_CLASS = 76;
+    private static final int TAG_DO_ABC2 = 82;
+
+    private static final int NAMESPACE_PACKAGE = 0x16;
+    private static final int NAMESPACE_PRIVATE = 0x05;
+    private static final int MULTINAME_QNAME = 0x07;
+
+    private static final int TRAIT_SLOT = 0;
+    private static final int TRAIT_METHOD = 1;
+    private static final int TRAIT_CLASS = 4;
+
+    private final int classCount;
+    private final int packageDepth;
+    private final int packageWidth;
+    private final int methodsPerClass;
+    private final int abcTagCount;
+    private final int spriteCount;
+    private final int framesPerSprite;
+
+    /**
+     * @param classCount      The total number of classes.
+     * @param packageDepth    The number of package levels above each class, 0 puts all classes to the top level.
+     * @param methodsPerClass The number of methods in each class.
+     */
+    public SyntheticSwfGenerator(int classCount, int packageDepth, int methodsPerClass) {
+        this(classCount, packageDepth, 4, methodsPerClass, 1);
+    }
+
+    /**
+     * @param classCount      The total number of classes.
+     * @param packageDepth    The number of package levels above each class, 0 puts all classes to the top level.
+     * @param packageWidth    The number of sub packages in each package.
+     * @param methodsPerClass The number of methods in each class.
+     * @param abcTagCount     The number of DoABC2 tags the classes are distributed over.
+     */
+    public SyntheticSwfGenerator(int classCount, int packageDepth, int packageWidth, int methodsPerClass,
+                                 int abcTagCount) {
+        this(classCount, packageDepth, packageWidth, methodsPerClass, abcTagCount, 0, 0);
+    }
+
+    /**
+     * @param classCount      The total number of classes.
+     * @param packageDepth    The number of package levels above each class, 0 puts all classes to the top level.
+     * @param packageWidth    The number of sub packages in each package.
+     * @param methodsPerClass The number of methods in each class.
+     * @param abcTagCount     The number of DoABC2 tags the classes are distributed over.
+     * @param spriteCount     The number of sprites before the code tags.
+     * @param framesPerSprite The number of frames in each sprite.
+     */
+    public SyntheticSwfGenerator(int classCount, int packageDepth, int packageWidth, int methodsPerClass,
+                                 int abcTagCount, int spriteCount, int framesPerSprite) {
+        this.classCount = classCount;
+        this.packageDepth = packageDepth;
+        this.packageWidth = Math.max(1, packageWidth);
+        this.methodsPerClass = methodsPerClass;
+        this.abcTagCount = Math.max(1, Math.min(abcTagCount, Math.max(1, classCount)));
+        this.spriteCount = spriteCount;
+        this.framesPerSprite = framesPerSprite;
+    }
+
+    /**
+     * @return The qualified name of the class with the given index like "p0.p1.Class5".
+     */
+    public String getClassName(int index) {
+        return qualify(getPackageName(index), "Class" + index);
+    }
+
+    public String getPackageName(int index) {
+        StringBuilder sb = new StringBuilder();
+        int n = index;
+        for (int level = 0; level < packageDepth; level++) {
+            if (sb.length() > 0) {
+                sb.append('.');
+            }
+            sb.append('p').append(level).append('_').append(n % packageWidth);
+            n /= packageWidth;
+        }
+        return sb.toString();
+    }
+
+    public byte[] generate() {
+        try {
+            ByteArrayOutputStream tags = new ByteArrayOutputStream();
+            writeTag(tags, TAG_FILE_ATTRIBUTES, new byte[]{0x08, 0, 0, 0});
+            for (int sprite = 0; sprite < spriteCount; sprite++) {
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                writeU16(data, sprite + 1);
+                writeU16(data, framesPerSprite);
+                for (int frame = 0; frame < framesPerSprite; frame++) {
+                    writeTag(data, TAG_SHOW_FRAME, new byte[0]);
+                }
+                writeTag(data, TAG_END, new byte[0]);
+                writeTag(tags, TAG_DEFINE_SPRITE, data.toByteArray());
+            }
+            int from = 0;
+            for (int tag = 0; tag < abcTagCount; tag++) {
+                int to = (int) ((long) classCount * (tag + 1) / abcTagCount);
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                writeU32(data, 1);
+                data.write(("abc" + tag).getBytes(StandardCharsets.UTF_8));
+                data.write(0);
+                data.write(generateAbc(from, to));
+                writeTag(tags, TAG_DO_ABC2, data.toByteArray());
+                from = to;
+            }
+            if (classCount > 0) {
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                writeU16(data, 1);
+                writeU16(data, 0);
+                data.write(getClassName(0).getBytes(StandardCharsets.UTF_8));
+                data.write(0);
+                writeTag(tags, TAG_SYMBOL_CLASS, data.toByteArray());
+            }
+            writeTag(tags, TAG_SHOW_FRAME, new byte[0]);
+            writeTag(tags, TAG_END, new byte[0]);
+
+            ByteArrayOutputStream swf = new ByteArrayOutputStream();
+            swf.write(new byte[]{'F', 'W', 'S', 10});
+            byte[] body = tags.toByteArray();
+            // Header: signature, version, length, empty frame rect, frame rate, frame count.
+            writeU32(swf, 8 + 1 + 2 + 2 + body.length);
+            swf.write(0);
+            writeU16(swf, 24 << 8);
+            writeU16(swf, 1);
+            swf.write(body);
+            return swf.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Path generate(Path file) throws IOException {
+        return Files.write(file, generate());
+    }
+
+    private byte[] generateAbc(int from, int to) throws IOException {
+        ConstantPool pool = new ConstantPool();
+        int objectName = pool.qName("", "Object");
+        List<byte[]> methods = new ArrayList<>();
+        List<byte[]> bodies = new ArrayList<>();
+        ByteArrayOutputStream instances = new ByteArrayOutputStream();
+        ByteArrayOutputStream classes = new ByteArrayOutputStream();
+        ByteArrayOutputStream scripts = new ByteArrayOutputStream();
+
+        for (int i = from; i < to; i++) {
+            int classIndex = i - from;
+            String packageName = getPackageName(i);
+            String className = "Class" + i;
+            int name = pool.qName(packageName, className);
+            int privateNs = pool.namespace(NAMESPACE_PRIVATE, qualify(packageName, className));
+            int intType = pool.qName("", "int");
+            int field = pool.multiname(privateNs, pool.string("field"));
+
+            // Instance: constructor, a field and the methods.
+            int iinit = addMethod(methods, bodies, 0, 0, code(
+                    op(0xd0), op(0x30), op(0xd0), op(0x49, 0), op(0x47)), 1, 1);
+            ByteArrayOutputStream instance = new ByteArrayOutputStream();
+            writeU30(instance, name);
+            writeU30(instance, objectName);
+            instance.write(0x01);
+            writeU30(instance, 0);
+            writeU30(instance, iinit);
+            writeU30(instance, 1 + methodsPerClass);
+            writeU30(instance, field);
+            instance.write(TRAIT_SLOT);
+            writeU30(instance, 0);
+            writeU30(instance, intType);
+            writeU30(instance, 0);
+            for (int m = 0; m < methodsPerClass; m++) {
+                int methodName = pool.qName("", "method" + m);
+                // return param + m + this.field;
+                int method = addMethod(methods, bodies, 1, intType, code(
+                        op(0xd0), op(0x30), op(0xd1), op(0x24, m % 100 + 1), op(0xa0),
+                        op(0xd0), op(0x66, field), op(0xa0), op(0x48)), 3, 2);
+                writeU30(instance, methodName);
+                instance.write(TRAIT_METHOD);
+                writeU30(instance, 0);
+                writeU30(instance, method);
+            }
+            instances.write(instance.toByteArray());
+
+            int cinit = addMethod(methods, bodies, 0, 0, code(op(0xd0), op(0x30), op(0x47)), 1, 1);
+            writeU30(classes, cinit);
+            writeU30(classes, 0);
+
+            int sinit = addMethod(methods, bodies, 0, 0, code(
+                    op(0xd0), op(0x30), op(0x65, 0), op(0x60, objectName), op(0x30), op(0x60, objectName),
+                    op(0x58, classIndex), op(0x1d), op(0x68, name), op(0x47)), 2, 1);
+            writeU30(scripts, sinit);
+            writeU30(scripts, 1);
+            writeU30(scripts, name);
+            scripts.write(TRAIT_CLASS);
+            writeU30(scripts, 0);
+            writeU30(scripts, classIndex);
+        }
+
+        ByteArrayOutputStream abc = new ByteArrayOutputStream();
+        writeU16(abc, 16);
+        writeU16(abc, 46);
+        pool.write(abc);
+        writeU30(abc, methods.size());
+        for (byte[] method : methods) {
+            abc.write(method);
+        }
+        writeU30(abc, 0);
+        writeU30(abc, to - from);
+        abc.write(instances.toByteArray());
+        abc.write(classes.toByteArray());
+        writeU30(abc, to - from);
+        abc.write(scripts.toByteArray());
+        writeU30(abc, bodies.size());
+        for (byte[] body : bodies) {
+            abc.write(body);
+        }
+        return abc.toByteArray();
+    }
+
+    private static int addMethod(List<byte[]> methods, List<byte[]> bodies, int paramCount, int returnType,
+                                 byte[] code, int maxStack, int localCount) throws IOException {
+        int index = methods.size();
+        ByteArrayOutputStream method = new ByteArrayOutputStream();
+        writeU30(method, paramCount);
+        writeU30(method, returnType);
+        for (int i = 0; i < paramCount; i++) {
+            writeU30(method, returnType);
+        }
+        writeU30(method, 0);
+        method.write(0);
+        methods.add(method.toByteArray());
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeU30(body, index);
+        writeU30(body, maxStack);
+        writeU30(body, localCount + paramCount);
+        writeU30(body, 0);
+        writeU30(body, 1);
+        writeU30(body, code.length);
+        body.write(code);
+        writeU30(body, 0);
+        writeU30(body, 0);
+        bodies.add(body.toByteArray());
+        return index;
+    }
+
+    /**
+     * Encodes the method code, each array is an opcode followed by its operands.
+     * The operands of pushbyte and getscopeobject are u8, the others are u30.
+     */
+    private static byte[] code(int[]... instructions) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int[] instruction : instructions) {
+            out.write(instruction[0]);
+            for (int i = 1; i < instruction.length; i++) {
+                if (instruction[0] == 0x24 || instruction[0] == 0x65) {
+                    out.write(instruction[i]);
+                } else {
+                    writeU30(out, instruction[i]);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static int[] op(int... values) {
+        return values;
+    }
+
+    private static String qualify(String packageName, String name) {
+        return packageName.isEmpty() ? name : packageName + "." + name;
+    }
+
+    private static void writeTag(OutputStream out, int code, byte[] data) throws IOException {
+        writeU16(out, (code << 6) | 0x3f);
+        writeU32(out, data.length);
+        out.write(data);
+    }
+
+    private static void writeU16(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+    }
+
+    private static void writeU32(OutputStream out, long value) throws IOException {
+        writeU16(out, (int) (value & 0xffff));
+        writeU16(out, (int) ((value >>> 16) & 0xffff));
+    }
+
+    private static void writeU30(OutputStream out, int value) throws IOException {
+        do {
+            int b = value & 0x7f;
+            value >>>= 7;
+            out.write(value != 0 ? b | 0x80 : b);
+        } while (value != 0);
+    }
+
+    /**
+     * The ABC constant pool with strings, namespaces and QName multinames only.
+     */
+    private static final class ConstantPool {
+
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final Map<String, Integer> namespaces = new LinkedHashMap<>();
+        private final Map<String, Integer> multinames = new LinkedHashMap<>();
+        private final ByteArrayOutputStream namespaceData = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream multinameData = new ByteArrayOutputStream();
+
+        int string(String value) {
+            return strings.computeIfAbsent(value, v -> strings.size() + 1);
+        }
+
+        int namespace(int kind, String name) {
+            int nameIndex = string(name);
+            return namespaces.computeIfAbsent(kind + ":" + name, k -> {
+                namespaceData.write(kind);
+                writeU30Unchecked(namespaceData, nameIndex);
+                return namespaces.size() + 1;
+            });
+        }
+
+        int multiname(int namespace, int name) {
+            return multinames.computeIfAbsent(namespace + ":" + name, k -> {
+                multinameData.write(MULTINAME_QNAME);
+                writeU30Unchecked(multinameData, namespace);
+                writeU30Unchecked(multinameData, name);
+                return multinames.size() + 1;
+            });
+        }
+
+        int qName(String packageName, String name) {
+            return multiname(namespace(NAMESPACE_PACKAGE, packageName), string(name));
+        }
+
+        void write(OutputStream out) throws IOException {
+            writeU30(out, 0);
+            writeU30(out, 0);
+            writeU30(out, 0);
+            writeU30(out, strings.size() + 1);
+            for (String s : strings.keySet()) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeU30(out, bytes.length);
+                out.write(bytes);
+            }
+            writeU30(out, namespaces.size() + 1);
+            out.write(namespaceData.toByteArray());
+            writeU30(out, 0);
+            writeU30(out, multinames.size() + 1);
+            out.write(multinameData.toByteArray());
+        }
+
+        private static void writeU30Unchecked(ByteArrayOutputStream out, int value) {
+            try {
+                writeU30(out, value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int classCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int packageDepth = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int methodsPerClass = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        new SyntheticSwfGenerator(classCount, packageDepth, methodsPerClass).generate(Paths.get(args[0]));
+    }
+}
@@ -0,0 +1,84 @@
+package com.epolyakov.ffdec4idea.benchmarks;
+
+import com.epolyakov.ffdec4idea.cli.LocalSwfFile;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The synthetic swf file shared by the threads of a benchmark, it is generated once per trial
+ * with the class count and the package depth given by the parameters.
+ *
+ * @author epolyakov
+ */
+@State(Scope.Benchmark)
+public class SyntheticSwfState {
+
+    @Param({"100", "1000"})
+    public int classCount;
+
+    @Param({"1", "4"})
+    public int packageDepth;
+
+    @Param("5")
+    public int methodsPerClass;
+
+    public LocalSwfFile swfFile;
+    // The qualified names of the classes and of all their packages.
+    public String[] classNames;
+    public String[] packageNames;
+
+    private File file;
+
+    @Setup
+    public void generate() throws IOException {
+        SyntheticSwfGenerator generator = new SyntheticSwfGenerator(classCount, packageDepth, methodsPerClass);
+        file = File.createTempFile("synthetic", ".swf");
+        generator.generate(file.toPath());
+        swfFile = new LocalSwfFile(file);
+
+        classNames = new String[classCount];
+        Set<String> packages = new LinkedHashSet<>();
+        for (int i = 0; i < classCount; i++) {
+            classNames[i] = generator.getClassName(i);
+            String packageName = generator.getPackageName(i);
+            while (!packageName.isEmpty()) {
+                packages.add(packageName);
+                int index = packageName.lastIndexOf('.');
+                packageName = index >= 0 ? packageName.substring(0, index) : "";
+            }
+        }
+        packageNames = packages.toArray(new String[packages.size()]);
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * @return The qualified names of the packages and the classes mixed.
+     */
+    public String[] getAllNames() {
+        List<String> names = new ArrayList<>(packageNames.length + classNames.length);
+        for (int i = 0; i < Math.max(packageNames.length, classNames.length); i++) {
+            if (i < packageNames.length) {
+                names.add(packageNames[i]);
+            }
+            if (i < classNames.length) {
+                names.add(classNames[i]);
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+}
@@ -0,0 +1,82 @@
+package com.epolyakov.ffdec4idea.benchmarks;
+
+import com.epolyakov.ffdec4idea.vfs.DecompiledSwfTextWriter;
+import com.jpexs.decompiler.flash.configuration.Configuration;
+import com.jpexs.decompiler.flash.helpers.CodeFormatting;
+import com.jpexs.decompiler.flash.helpers.GraphTextWriter;
+import com.jpexs.decompiler.flash.helpers.HighlightedTextWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the text writers on the text shaped like a decompiled class: nested blocks
+ * of short statements. The writer of ffdec that builds a string is measured for comparison.
+ *
+ * @author epolyakov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextWriterBenchmark {
+
+    @Param({"1000", "100000"})
+    public int lineCount;
+
+    private CodeFormatting formatting;
+
+    @Setup
+    public void setUp() {
+        formatting = Configuration.getCodeFormatting();
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        try (DecompiledSwfTextWriter writer = new DecompiledSwfTextWriter(formatting)) {
+            write(writer);
+            return writer.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public byte[] highlighted() {
+        HighlightedTextWriter writer = new HighlightedTextWriter(formatting, false);
+        write(writer);
+        return writer.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void write(GraphTextWriter writer) {
+        writer.append("package com.example").newLine();
+        writer.append("{").newLine().indent();
+        for (int i = 0; i < lineCount; i++) {
+            switch (i % 8) {
+                case 0:
+                    writer.append("public function method" + i + "(param1:int) : int").newLine();
+                    writer.append("{").newLine().indent();
+                    break;
+                case 7:
+                    writer.append("return _loc2_ + param1;").newLine();
+                    writer.unindent().append("}").newLine();
+                    break;
+                default:
+                    writer.append("var _loc").append(Integer.toString(i % 8)).append("_:String = \"\u00e9l\u00e9ment\" + ")
+                            .append(Integer.toString(i)).append(";").newLine();
+            }
+        }
+        writer.unindent().append("}").newLine();
+    }
+}
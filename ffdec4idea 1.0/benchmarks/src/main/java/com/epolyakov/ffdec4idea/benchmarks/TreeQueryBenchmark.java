@@ -0,0 +1,67 @@
+package com.epolyakov.ffdec4idea.benchmarks;
+
+import com.epolyakov.ffdec4idea.vfs.SwfHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the queries of the package tree of a loaded swf file. Each call takes the next package or class,
+ * so all the tree nodes are visited in turn.
+ *
+ * @author epolyakov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dffdec4idea.persistentCache.enabled=false")
+public class TreeQueryBenchmark {
+
+    private SwfHandler handler;
+    private String[] packageNames;
+    private String[] names;
+    private int index;
+
+    @Setup
+    public void load(SyntheticSwfState state) throws IOException {
+        handler = new SwfHandler(state.swfFile);
+        handler.getSwf();
+        // The classes are in the top level package if there are no packages.
+        packageNames = state.packageNames.length > 0 ? state.packageNames : new String[]{""};
+        names = state.getAllNames();
+    }
+
+    @Benchmark
+    public String[] rootContents() {
+        return handler.getRootContents();
+    }
+
+    @Benchmark
+    public String[] packageContents() {
+        return handler.getPackageContents(next(packageNames));
+    }
+
+    @Benchmark
+    public boolean isPackage() {
+        return handler.isPackage(next(names));
+    }
+
+    private String next(String[] values) {
+        if (index >= values.length) {
+            index = 0;
+        }
+        return values[index++];
+    }
+}
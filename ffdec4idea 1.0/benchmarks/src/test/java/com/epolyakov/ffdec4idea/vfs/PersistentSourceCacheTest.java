@@ -0,0 +1,184 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author epolyakov
+ */
+public class PersistentSourceCacheTest {
+
+    private static final int RECORD_LENGTH = 4 + 20 + 4;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+    private PersistentSourceCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temporaryFolder.newFolder("cache");
+        cache = new PersistentSourceCache(directory, 10000);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void appendsRecords() {
+        cache.put(key(1), source(1, 100));
+        cache.put(key(2), source(2, 200));
+
+        assertArrayEquals(source(1, 100), cache.get(key(1)));
+        assertArrayEquals(source(2, 200), cache.get(key(2)));
+        assertNull(cache.get(key(3)));
+        assertEquals(200, cache.getLength(key(2)));
+        assertEquals(-1, cache.getLength(key(3)));
+        assertEquals(2, cache.getRecordCount());
+        assertEquals(2 * RECORD_LENGTH + 300, cache.getSize());
+    }
+
+    @Test
+    public void keepsFirstRecordOfKey() {
+        cache.put(key(1), source(1, 100));
+        cache.put(key(1), source(2, 50));
+
+        assertArrayEquals(source(1, 100), cache.get(key(1)));
+        assertEquals(RECORD_LENGTH + 100, cache.getSize());
+    }
+
+    @Test
+    public void skipsSourcesOverHalfOfCap() {
+        cache.put(key(1), source(1, 5000));
+
+        assertNull(cache.get(key(1)));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void findsRecordsAfterReopen() throws IOException {
+        cache.put(key(1), source(1, 100));
+        cache.put(key(2), source(2, 200));
+        cache.close();
+
+        cache = new PersistentSourceCache(directory, 10000);
+        assertEquals(2, cache.getRecordCount());
+        assertArrayEquals(source(1, 100), cache.get(key(1)));
+        assertArrayEquals(source(2, 200), cache.get(key(2)));
+
+        cache.put(key(3), source(3, 300));
+        assertArrayEquals(source(3, 300), cache.get(key(3)));
+        assertEquals(3 * RECORD_LENGTH + 600, cache.getSize());
+    }
+
+    @Test
+    public void truncatesBrokenTailOnReopen() throws IOException {
+        cache.put(key(1), source(1, 100));
+        cache.put(key(2), source(2, 200));
+        cache.close();
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            file.setLength(file.length() - 10);
+        }
+
+        cache = new PersistentSourceCache(directory, 10000);
+        assertEquals(1, cache.getRecordCount());
+        assertArrayEquals(source(1, 100), cache.get(key(1)));
+        assertNull(cache.get(key(2)));
+        assertEquals(RECORD_LENGTH + 100, cache.getSize());
+        assertEquals(cache.getSize(), files[0].length());
+    }
+
+    @Test
+    public void compactsToRecentlyUsedRecords() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            cache.put(key(i), source(i, 972));
+        }
+        // The first record is used, so it is kept instead of the second one.
+        assertNotNull(cache.get(key(0)));
+        cache.put(key(10), source(10, 972));
+
+        assertTrue(cache.getSize() <= 5000);
+        assertEquals(5, cache.getRecordCount());
+        assertArrayEquals(source(0, 972), cache.get(key(0)));
+        assertArrayEquals(source(10, 972), cache.get(key(10)));
+        for (int i = 1; i < 7; i++) {
+            assertNull(cache.get(key(i)));
+        }
+        assertEquals(Arrays.asList("sources.1.dat"), Arrays.asList(directory.list()));
+
+        cache.close();
+        cache = new PersistentSourceCache(directory, 10000);
+        assertEquals(5, cache.getRecordCount());
+        for (int i : new int[]{7, 8, 9, 0, 10}) {
+            assertArrayEquals(source(i, 972), cache.get(key(i)));
+        }
+    }
+
+    @Test
+    public void opensLatestGeneration() throws IOException {
+        cache.put(key(1), source(1, 100));
+        cache.compact();
+        cache.close();
+        assertTrue(new File(directory, "sources.0.dat").createNewFile());
+
+        cache = new PersistentSourceCache(directory, 10000);
+        assertArrayEquals(source(1, 100), cache.get(key(1)));
+        assertEquals(Arrays.asList("sources.1.dat"), Arrays.asList(directory.list()));
+    }
+
+    @Test
+    public void keysDependOnAllParts() {
+        byte[] swfHash = {1, 2, 3};
+        byte[] scriptHash = {4, 5, 6};
+        byte[] key = PersistentSourceCache.getKey(swfHash, scriptHash, "a.B", "formatting");
+
+        assertEquals(20, key.length);
+        assertArrayEquals(key, PersistentSourceCache.getKey(swfHash, scriptHash, "a.B", "formatting"));
+        assertFalse(Arrays.equals(key,
+                PersistentSourceCache.getKey(new byte[]{1, 2}, scriptHash, "a.B", "formatting")));
+        assertFalse(Arrays.equals(key,
+                PersistentSourceCache.getKey(swfHash, new byte[]{4, 5}, "a.B", "formatting")));
+        assertFalse(Arrays.equals(key,
+                PersistentSourceCache.getKey(swfHash, scriptHash, "a.C", "formatting")));
+        assertFalse(Arrays.equals(key,
+                PersistentSourceCache.getKey(swfHash, scriptHash, "a.B", "formatting2")));
+    }
+
+    private static byte[] key(int i) {
+        byte[] key = new byte[20];
+        key[0] = (byte) i;
+        key[19] = (byte) (i >> 8);
+        return key;
+    }
+
+    private static byte[] source(int i, int length) {
+        byte[] bytes = new byte[length];
+        byte[] text = ("class Class" + i + " {}\n").getBytes(StandardCharsets.UTF_8);
+        for (int j = 0; j < length; j++) {
+            bytes[j] = text[j % text.length];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,166 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.jpexs.decompiler.flash.abc.ClassPath;
+import com.jpexs.decompiler.flash.abc.ScriptPack;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author epolyakov
+ */
+public class ScriptPackTreeTest {
+
+    @Test
+    public void findsPackagesAndClasses() {
+        ScriptPack myClass = pack("com.mypackage", "MyClass");
+        ScriptPack topLevel = pack("", "TopLevel");
+        ScriptPackTree tree = new ScriptPackTree(Arrays.asList(myClass, pack("com", "Other"), topLevel));
+
+        assertEquals(ScriptPackTree.ROOT, tree.find(""));
+        int com = tree.find("com");
+        int myPackage = tree.find("com.mypackage");
+        int node = tree.find("com.mypackage.MyClass");
+        assertTrue(tree.isPackage(com));
+        assertTrue(tree.isPackage(myPackage));
+        assertFalse(tree.isPackage(node));
+        assertNull(tree.getScriptPack(com));
+        assertSame(myClass, tree.getScriptPack(node));
+        assertSame(topLevel, tree.getScriptPack(tree.find("TopLevel")));
+        assertEquals("MyClass", tree.getName(node));
+        assertEquals("com.mypackage.MyClass", tree.getQualifiedName(node));
+        assertEquals(myPackage, tree.getParent(node));
+        assertEquals(com, tree.getParent(myPackage));
+        assertEquals(ScriptPackTree.ROOT, tree.getParent(com));
+        assertEquals(3, tree.getScriptPackCount());
+        assertEquals(6, tree.getNodeCount());
+    }
+
+    @Test
+    public void doesNotFindMissingNames() {
+        ScriptPackTree tree = new ScriptPackTree(Collections.singletonList(pack("com.mypackage", "MyClass")));
+
+        assertEquals(ScriptPackTree.NONE, tree.find("co"));
+        assertEquals(ScriptPackTree.NONE, tree.find("com.my"));
+        assertEquals(ScriptPackTree.NONE, tree.find("com.mypackage.MyClass.Inner"));
+        assertEquals(ScriptPackTree.NONE, tree.find("mypackage"));
+        assertEquals(ScriptPackTree.NONE, tree.find("com.MyPackage"));
+        assertNull(tree.getScriptPack(ScriptPackTree.NONE));
+    }
+
+    @Test
+    public void findsChildrenByRegions() {
+        ScriptPackTree tree = new ScriptPackTree(Collections.singletonList(pack("com.mypackage", "MyClass")));
+        String path = "/com/mypackage/MyClass.as";
+        int com = tree.findChild(ScriptPackTree.ROOT, path, 1, 4);
+        int myPackage = tree.findChild(com, path, 5, 14);
+        int node = tree.findChild(myPackage, path, 15, 22);
+
+        assertEquals(tree.find("com.mypackage.MyClass"), node);
+        assertEquals(ScriptPackTree.NONE, tree.findChild(ScriptPackTree.ROOT, path, 5, 14));
+        assertEquals(ScriptPackTree.NONE, tree.findChild(myPackage, path, 15, 25));
+    }
+
+    @Test
+    public void sortsChildrenByNames() {
+        ScriptPackTree tree = new ScriptPackTree(Arrays.asList(
+                pack("b", "Zeta"), pack("b", "Alpha"), pack("a", "Class"), pack("", "C"), pack("b", "Beta")));
+
+        assertArrayEquals(new String[]{"C", "a", "b"}, tree.getChildrenNames(ScriptPackTree.ROOT));
+        int b = tree.find("b");
+        assertArrayEquals(new String[]{"Alpha", "Beta", "Zeta"}, tree.getChildrenNames(b));
+        assertEquals(3, tree.getChildCount(b));
+        for (int i = 0; i < tree.getChildCount(b); i++) {
+            assertEquals(tree.getChildrenNames(b)[i], tree.getName(tree.getChild(b, i)));
+        }
+        assertEquals(Arrays.asList("C", "a.Class", "b.Alpha", "b.Beta", "b.Zeta"), tree.getClassNames());
+    }
+
+    @Test
+    public void returnsCopiesOfChildrenNames() {
+        ScriptPackTree tree = new ScriptPackTree(Arrays.asList(pack("", "A"), pack("", "B")));
+
+        tree.getChildrenNames(ScriptPackTree.ROOT)[0] = "X";
+        assertArrayEquals(new String[]{"A", "B"}, tree.getChildrenNames(ScriptPackTree.ROOT));
+        assertEquals(0, tree.getChildrenNames(tree.find("A")).length);
+    }
+
+    @Test
+    public void keepsFirstScriptPackOfDuplicateClass() {
+        ScriptPack first = pack("a", "Class");
+        ScriptPackTree tree = new ScriptPackTree(Arrays.asList(first, pack("a", "Class")));
+
+        assertSame(first, tree.getScriptPack(tree.find("a.Class")));
+        assertEquals(1, tree.getScriptPackCount());
+    }
+
+    @Test
+    public void keepsClassWhichIsAlsoPackage() {
+        ScriptPack outer = pack("a", "B");
+        ScriptPack inner = pack("a.B", "C");
+        ScriptPackTree tree = new ScriptPackTree(Arrays.asList(inner, outer));
+        int b = tree.find("a.B");
+
+        assertTrue(tree.isPackage(b));
+        assertSame(outer, tree.getScriptPack(b));
+        assertSame(inner, tree.getScriptPack(tree.find("a.B.C")));
+        assertEquals(Arrays.asList("a.B", "a.B.C"), tree.getClassNames());
+    }
+
+    @Test
+    public void findsAllNodesOfLargeTree() {
+        List<ScriptPack> packs = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            packs.add(pack("p" + i % 7 + ".q" + i % 13, "Class" + i));
+        }
+        ScriptPackTree tree = new ScriptPackTree(packs);
+
+        assertEquals(packs.size(), tree.getScriptPackCount());
+        for (ScriptPack scriptPack : packs) {
+            assertSame(scriptPack, tree.getScriptPack(tree.find(scriptPack.getClassPath().toString())));
+        }
+        for (int node = 0; node < tree.getNodeCount(); node++) {
+            assertEquals(node, tree.find(tree.getQualifiedName(node)));
+        }
+    }
+
+    @Test
+    public void shapeHasSameNodesWithoutScriptPacks() {
+        ScriptPackTree tree = new ScriptPackTree(Arrays.asList(pack("a", "Class"), pack("b", "Class")));
+        ScriptPackTree shape = tree.getShape();
+
+        assertNotSame(tree, shape);
+        assertSame(shape, shape.getShape());
+        assertEquals(tree.getGeneration(), shape.getGeneration());
+        assertEquals(tree.find("b.Class"), shape.find("b.Class"));
+        assertEquals(0, shape.getScriptPackCount());
+        assertNull(shape.getScriptPack(shape.find("b.Class")));
+        assertArrayEquals(tree.getChildrenNames(ScriptPackTree.ROOT), shape.getChildrenNames(ScriptPackTree.ROOT));
+    }
+
+    @Test
+    public void laterTreesHaveGreaterGenerations() {
+        ScriptPackTree first = new ScriptPackTree(Collections.emptyList());
+        ScriptPackTree second = new ScriptPackTree(Collections.emptyList());
+
+        assertTrue(second.getGeneration() > first.getGeneration());
+        assertEquals(1, first.getNodeCount());
+        assertFalse(first.isPackage(ScriptPackTree.ROOT));
+        assertTrue(first.getClassNames().isEmpty());
+    }
+
+    private static ScriptPack pack(String packageName, String className) {
+        return new ScriptPack(new ClassPath(packageName, className), null, 0, Collections.emptyList());
+    }
+}
@@ -0,0 +1,226 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author epolyakov
+ */
+public class SwcArchiveTest {
+
+    private static final byte[] CATALOG = "<swc/>".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readsStoredLibrary() throws IOException {
+        byte[] library = library(100000);
+        File swc = write(zip(library, ZipEntry.STORED));
+
+        assertArrayEquals(library, read(SwcArchive.openLibrary(swc)));
+        assertTrue(swc.delete());
+    }
+
+    @Test
+    public void readsDeflatedLibrary() throws IOException {
+        byte[] library = library(300000);
+        File swc = write(zip(library, ZipEntry.DEFLATED));
+
+        assertArrayEquals(library, read(SwcArchive.openLibrary(swc)));
+        assertTrue(swc.delete());
+    }
+
+    @Test
+    public void readsLibraryByBytes() throws IOException {
+        byte[] library = library(1000);
+        File swc = write(zip(library, ZipEntry.STORED));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (InputStream in = SwcArchive.openLibrary(swc)) {
+            for (int b = in.read(); b >= 0; b = in.read()) {
+                out.write(b);
+            }
+            assertEquals(-1, in.read(new byte[10], 0, 10));
+        }
+        assertArrayEquals(library, out.toByteArray());
+    }
+
+    @Test
+    public void readsLibraryOfStream() throws IOException {
+        byte[] library = library(10000);
+
+        for (int method : new int[]{ZipEntry.STORED, ZipEntry.DEFLATED}) {
+            InputStream swc = new ByteArrayInputStream(zip(library, method));
+            assertArrayEquals(library, read(SwcArchive.openLibrary(swc)));
+        }
+    }
+
+    @Test
+    public void failsWithoutLibrary() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("catalog.xml"));
+            zip.write(CATALOG);
+            zip.closeEntry();
+        }
+
+        assertFails(write(bytes.toByteArray()), "No library.swf");
+        try {
+            SwcArchive.openLibrary(new ByteArrayInputStream(bytes.toByteArray()));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("No library.swf"));
+        }
+    }
+
+    @Test
+    public void failsOnFileWhichIsNotArchive() throws IOException {
+        assertFails(write(library(1000)), "test.swc is not a swc archive");
+        assertFails(write(new byte[0]), "test.swc is not a swc archive");
+    }
+
+    @Test
+    public void failsOnCentralDirectoryOutOfFile() throws IOException {
+        byte[] swc = zip(library(1000), ZipEntry.STORED);
+        ByteBuffer end = endRecord(swc);
+        end.putInt(end.position() + 16, swc.length);
+
+        assertFails(write(swc), "Unsupported central directory of test.swc");
+    }
+
+    @Test
+    public void failsOnBrokenCentralDirectory() throws IOException {
+        byte[] swc = zip(library(1000), ZipEntry.STORED);
+        ByteBuffer end = endRecord(swc);
+        int directoryOffset = end.getInt(end.position() + 16);
+        swc[directoryOffset] = 0;
+
+        assertFails(write(swc), "No library.swf in test.swc");
+    }
+
+    @Test
+    public void failsOnBrokenLocalHeader() throws IOException {
+        byte[] swc = zip(library(1000), ZipEntry.STORED);
+        int localOffset = findLocalHeader(swc);
+        swc[localOffset] = 0;
+
+        assertFails(write(swc), "Broken local header of library.swf in test.swc");
+    }
+
+    private void assertFails(File swc, String message) {
+        try {
+            SwcArchive.openLibrary(swc).close();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+        // The archive is not left open by the failed read.
+        assertTrue(swc.delete());
+    }
+
+    private File write(byte[] bytes) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "test.swc");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+        return file;
+    }
+
+    private static byte[] zip(byte[] library, int method) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("catalog.xml"));
+            zip.write(CATALOG);
+            zip.closeEntry();
+            ZipEntry entry = new ZipEntry(SwcArchive.LIBRARY_ENTRY);
+            entry.setMethod(method);
+            if (method == ZipEntry.STORED) {
+                CRC32 crc = new CRC32();
+                crc.update(library);
+                entry.setSize(library.length);
+                entry.setCompressedSize(library.length);
+                entry.setCrc(crc.getValue());
+            }
+            zip.putNextEntry(entry);
+            zip.write(library);
+            zip.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return The buffer over the archive positioned at the end of central directory record.
+     */
+    private static ByteBuffer endRecord(byte[] swc) {
+        ByteBuffer buffer = ByteBuffer.wrap(swc).order(ByteOrder.LITTLE_ENDIAN);
+        int position = swc.length - 22;
+        assertEquals(0x06054b50, buffer.getInt(position));
+        buffer.position(position);
+        return buffer;
+    }
+
+    /**
+     * @return The offset of the local header of the library.swf entry, its name is the first occurrence in the archive.
+     */
+    private static int findLocalHeader(byte[] swc) {
+        int offset = indexOf(swc, "library.swf");
+        assertTrue(offset >= 30);
+        return offset - 30;
+    }
+
+    private static int indexOf(byte[] bytes, String s) {
+        byte[] pattern = s.getBytes(StandardCharsets.US_ASCII);
+        search:
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue search;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] library(int length) {
+        // The swf is mostly code, so a half of the bytes repeat and a half are random.
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        for (int i = 0; i < length; i += 2) {
+            bytes[i] = (byte) (i % 61);
+        }
+        return bytes;
+    }
+
+    private static byte[] read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = inputStream) {
+            byte[] buffer = new byte[4096];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,130 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.epolyakov.ffdec4idea.benchmarks.SyntheticSwfGenerator;
+import com.jpexs.decompiler.flash.SWF;
+import com.jpexs.decompiler.flash.abc.ClassPath;
+import com.jpexs.decompiler.flash.abc.ScriptPack;
+import com.jpexs.decompiler.flash.helpers.collections.MyEntry;
+import com.jpexs.decompiler.flash.tags.Tag;
+import com.jpexs.decompiler.flash.tags.TagStub;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author epolyakov
+ */
+public class SwfCodeReaderTest {
+
+    @Test
+    public void readsSameScriptPacksAsSwf() throws Exception {
+        byte[] bytes = new SyntheticSwfGenerator(50, 2, 3, 2, 1).generate();
+
+        assertSameScriptPacks(bytes, null);
+    }
+
+    @Test
+    public void readsSameScriptPacksOfSeveralAbcTags() throws Exception {
+        byte[] bytes = new SyntheticSwfGenerator(200, 3, 2, 1, 7).generate();
+
+        assertSameScriptPacks(bytes, null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertSameScriptPacks(bytes, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void readsSameScriptPacksBetweenSkippedTags() throws Exception {
+        byte[] bytes = new SyntheticSwfGenerator(40, 1, 4, 1, 2, 200, 50).generate();
+
+        SWF swf = assertSameScriptPacks(bytes, null);
+        // The bytes of the sprites are not retained.
+        assertTrue(SwfCodeReader.getCodeLength(swf) < bytes.length / 2);
+        assertTrue(swf.uncompressedData.length < bytes.length / 2);
+    }
+
+    @Test
+    public void readsSameScriptPacksOfCompressedSwf() throws Exception {
+        byte[] bytes = compress(new SyntheticSwfGenerator(30, 1, 3, 1, 2).generate());
+
+        assertSameScriptPacks(bytes, null);
+    }
+
+    @Test
+    public void parsesAbcTagsOnMaterialize() throws Exception {
+        byte[] bytes = new SyntheticSwfGenerator(20, 1, 2, 1, 3).generate();
+        SWF swf = SwfCodeReader.read(new ByteArrayInputStream(bytes));
+
+        assertEquals(3, countStubs(swf));
+        SwfCodeReader.materialize(swf, null);
+        assertEquals(0, countStubs(swf));
+        List<Tag> tags = swf.tags;
+        SwfCodeReader.materialize(swf, null);
+        assertSame(tags, swf.tags);
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnTooShortHeader() throws Exception {
+        SwfCodeReader.read(new ByteArrayInputStream(new byte[]{'F', 'W', 'S'}));
+    }
+
+    private static SWF assertSameScriptPacks(byte[] bytes, ForkJoinPool pool) throws Exception {
+        SWF expected = new SWF(new ByteArrayInputStream(bytes), false);
+        SWF actual = SwfCodeReader.read(new ByteArrayInputStream(bytes));
+        SwfCodeReader.materialize(actual, pool);
+
+        assertEquals(expected.getAbcList().size(), actual.getAbcList().size());
+        List<MyEntry<ClassPath, ScriptPack>> expectedPacks = expected.getAS3Packs();
+        List<MyEntry<ClassPath, ScriptPack>> actualPacks = actual.getAS3Packs();
+        assertFalse(expectedPacks.isEmpty());
+        assertEquals(toStrings(expectedPacks), toStrings(actualPacks));
+        return actual;
+    }
+
+    /**
+     * @return The class paths with the indices of the ABC blocks, the scripts and the traits of the script packs.
+     */
+    private static List<String> toStrings(List<MyEntry<ClassPath, ScriptPack>> packs) {
+        List<String> result = new ArrayList<>();
+        for (MyEntry<ClassPath, ScriptPack> entry : packs) {
+            ScriptPack scriptPack = entry.getValue();
+            result.add(entry.getKey() + " " + scriptPack.getSwf().getAbcList().indexOf(scriptPack.abc.parentTag)
+                    + " " + scriptPack.scriptIndex + " " + scriptPack.traitIndices);
+        }
+        return result;
+    }
+
+    private static int countStubs(SWF swf) {
+        int count = 0;
+        for (Tag tag : swf.tags) {
+            if (tag instanceof TagStub) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static byte[] compress(byte[] swf) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('C');
+        out.write(swf, 1, 7);
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+            deflater.write(swf, 8, swf.length - 8);
+        }
+        return out.toByteArray();
+    }
+}
@@ -1,24 +1,46 @@
 package com.epolyakov.ffdec4idea.actions;
 
+import com.epolyakov.ffdec4idea.vfs.DecompiledSwfFile;
 import com.epolyakov.ffdec4idea.vfs.DecompiledSwfFileSystem;
+import com.epolyakov.ffdec4idea.vfs.DecompilerOptions;
+import com.epolyakov.ffdec4idea.vfs.PreDecompileTask;
+import com.epolyakov.ffdec4idea.vfs.SwcArchive;
 import com.intellij.ide.projectView.impl.ProjectViewTree;
 import com.intellij.javascript.flex.FlexApplicationComponent;
+import com.intellij.notification.Notification;
+import com.intellij.notification.NotificationType;
+import com.intellij.notification.Notifications;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.EditorNotificationPanel;
 import com.jpexs.decompiler.flash.SWF;
+import org.jetbrains.annotations.NotNull;
 
 import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author epolyakov
@@ -26,17 +48,28 @@ import java.util.ResourceBundle;
 public class DecompileAction extends AnAction {
 
     private static final ResourceBundle resources = ResourceBundle.getBundle("com.epolyakov.ffdec4idea.resources.ffdec4idea");
+    private static final String NOTIFICATION_GROUP = "ffdec4idea";
+
+    // The selected classes are decompiled by their own threads, so they do not wait behind the pre-decompilation
+    // which fills the parallel pool of the handlers.
+    private static final ThreadPoolExecutor decompiler = new ThreadPoolExecutor(
+            DecompilerOptions.getParallelism(), DecompilerOptions.getParallelism(), 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "ffdec4idea open definitions");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        decompiler.allowCoreThreadTimeOut(true);
+    }
 
     @Override
     public void actionPerformed(AnActionEvent event) {
         VirtualFile swfFile = event.getData(PlatformDataKeys.VIRTUAL_FILE);
         if (isSwfFile(swfFile)) {
-            try {
-                String[] definitions = getDefinitions(event.getData(PlatformDataKeys.CONTEXT_COMPONENT), swfFile);
-                openDefinitions(definitions, swfFile, event.getProject());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            String[] definitions = getDefinitions(event.getData(PlatformDataKeys.CONTEXT_COMPONENT), swfFile);
+            ProgressManager.getInstance().run(new OpenDefinitionsTask(event.getProject(), swfFile, definitions));
         }
     }
 
@@ -73,54 +106,13 @@ public class DecompileAction extends AnAction {
     }
 
     /**
-     * Opens the selected AS3 definitions
-     *
-     * @param definitions The list of definitions.
-     * @param swfFile     The selected swf file
-     * @param project     The current project.
-     * @throws IOException
-     * @throws InterruptedException
-     */
-    private void openDefinitions(String[] definitions, VirtualFile swfFile, Project project)
-            throws IOException, InterruptedException {
-
-        SWF swf = DecompiledSwfFileSystem.getInstance().getSwf(swfFile);
-
-        for (String definition : definitions) {
-
-            // The empty definition path means that the swf file itself is selected
-            // Try to get a document class in this case.
-            if (definition == null || definition.isEmpty()) {
-                definition = swf.getDocumentClass();
-                if (definition != null) {
-                    definition = definition.replace('.', '/');
-                }
-            }
-
-            // There is no document class. Show an appropriate message.
-            if (definition == null || definition.isEmpty()) {
-                // todo
-                continue;
-            }
-
-            String path = swfFile.getPath() + DecompiledSwfFileSystem.PATH_SEPARATOR + definition;
-            VirtualFile file = DecompiledSwfFileSystem.getInstance().findFileByPath(path);
-
-            if (file != null) {
-                OpenFileDescriptor openFileDescriptor = new OpenFileDescriptor(project, file, 0);
-                FileEditorManager.getInstance(project).openTextEditor(openFileDescriptor, true);
-            }
-        }
-    }
-
-    /**
-     * Checks if the file is of swf type.
+     * Checks if the file is of swf type or it is a swc archive, the library.swf of which is decompiled.
      *
      * @param file The given virtual file.
-     * @return True if the file is swf.
+     * @return True if the file is swf or swc.
      */
     private boolean isSwfFile(VirtualFile file) {
-        return file != null && file.getFileType() == FlexApplicationComponent.SWF_FILE_TYPE;
+        return file != null && (file.getFileType() == FlexApplicationComponent.SWF_FILE_TYPE || SwcArchive.isSwcFile(file));
     }
 
     /**
@@ -163,4 +155,139 @@ public class DecompileAction extends AnAction {
             editor.setHeaderComponent(editorNotificationPanel);
         }
     }
+
+    /**
+     * Shows the balloon notification in the project.
+     */
+    private static void notify(Project project, String content, NotificationType type) {
+        Notifications.Bus.notify(new Notification(NOTIFICATION_GROUP, resources.getString("notification.title"),
+                content, type), project);
+    }
+
+    /**
+     * The background task that loads the swf file and decompiles the selected definitions in parallel.
+     * The editors are opened on the event dispatch thread as soon as the classes are decompiled, in the order they are ready.
+     */
+    private static class OpenDefinitionsTask extends Task.Backgroundable {
+
+        private final VirtualFile swfFile;
+        private final String[] definitions;
+
+        OpenDefinitionsTask(Project project, VirtualFile swfFile, String[] definitions) {
+            super(project, MessageFormat.format(resources.getString("swf.loading"), swfFile.getName()), true);
+            this.swfFile = swfFile;
+            this.definitions = definitions;
+        }
+
+        @Override
+        public void run(@NotNull ProgressIndicator indicator) {
+            indicator.setIndeterminate(true);
+            indicator.setText(MessageFormat.format(resources.getString("swf.loading"), swfFile.getName()));
+
+            SWF swf;
+            try {
+                swf = DecompiledSwfFileSystem.getInstance().getSwf(swfFile);
+            } catch (IOException e) {
+                DecompileAction.notify(myProject, MessageFormat.format(resources.getString("swf.loading.error"),
+                        swfFile.getName(), e.getMessage()), NotificationType.ERROR);
+                return;
+            }
+            indicator.checkCanceled();
+
+            List<DecompiledSwfFile> files = findFiles(swf);
+            if (files.isEmpty()) {
+                return;
+            }
+            indicator.setIndeterminate(false);
+            indicator.setText(MessageFormat.format(resources.getString("predecompile.title"), swfFile.getName()));
+
+            PreDecompileTask.startIfNeeded(myProject, files.get(0).getHandler(), files.get(0).getQualifiedName());
+
+            AtomicInteger done = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (DecompiledSwfFile file : files) {
+                futures.add(decompiler.submit(() -> {
+                    if (indicator.isCanceled()) {
+                        return;
+                    }
+                    try {
+                        // Fill the source cache, the editor reads the class from the cache then.
+                        decompile(file);
+                        if (!indicator.isCanceled()) {
+                            ApplicationManager.getApplication().invokeLater(() -> openFile(file));
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        if (!indicator.isCanceled()) {
+                            DecompileAction.notify(myProject, MessageFormat.format(resources.getString("decompile.error"),
+                                    file.getQualifiedName(), e.getMessage()), NotificationType.ERROR);
+                        }
+                    } finally {
+                        indicator.setFraction((double) done.incrementAndGet() / files.size());
+                        indicator.setText2(file.getQualifiedName());
+                    }
+                }));
+            }
+            try {
+                for (Future<?> future : futures) {
+                    while (!future.isDone()) {
+                        indicator.checkCanceled();
+                        try {
+                            future.get(100, TimeUnit.MILLISECONDS);
+                        } catch (TimeoutException | ExecutionException | CancellationException ignored) {
+                            // The errors are notified by the task itself.
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            } finally {
+                // Interrupts the decompilations in progress if the task is canceled, the finished ones are not affected.
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        /**
+         * Finds the decompiled files of the selected definitions, the empty definition path means that the swf file
+         * itself is selected and the document class is opened in this case.
+         */
+        private List<DecompiledSwfFile> findFiles(SWF swf) {
+            List<DecompiledSwfFile> files = new ArrayList<>(definitions.length);
+            for (String definition : definitions) {
+                if (definition == null || definition.isEmpty()) {
+                    definition = swf.getDocumentClass();
+                    if (definition == null || definition.isEmpty()) {
+                        DecompileAction.notify(myProject, MessageFormat.format(
+                                resources.getString("no.document.class.notification"), swfFile.getName()),
+                                NotificationType.WARNING);
+                        continue;
+                    }
+                    definition = definition.replace('.', '/');
+                }
+                String path = swfFile.getPath() + DecompiledSwfFileSystem.PATH_SEPARATOR + definition;
+                VirtualFile file = DecompiledSwfFileSystem.getInstance().findFileByPath(path);
+                if (file instanceof DecompiledSwfFile && !files.contains(file)) {
+                    files.add((DecompiledSwfFile) file);
+                }
+            }
+            return files;
+        }
+
+        private void decompile(DecompiledSwfFile file) throws IOException {
+            if (file.isDirectory()) {
+                return;
+            }
+            file.getHandler().contentsToByteArray(file.getQualifiedName());
+            // The editor gets the full source instead of the stub.
+            file.getHandler().requestFullSource(file.getQualifiedName());
+        }
+
+        private void openFile(DecompiledSwfFile file) {
+            if (!myProject.isDisposed() && file.isValid()) {
+                FileEditorManager.getInstance(myProject).openTextEditor(new OpenFileDescriptor(myProject, file, 0), true);
+            }
+        }
+    }
 }
@@ -0,0 +1,41 @@
+package com.epolyakov.ffdec4idea.actions;
+
+import com.epolyakov.ffdec4idea.vfs.DecompilerMetrics;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.testFramework.LightVirtualFile;
+
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.ResourceBundle;
+
+/**
+ * Opens the current metrics of the decompiler in a read-only editor. The same metrics are available through JMX.
+ *
+ * @author epolyakov
+ */
+public class DumpMetricsAction extends AnAction {
+
+    private static final ResourceBundle resources = ResourceBundle.getBundle("com.epolyakov.ffdec4idea.resources.ffdec4idea");
+
+    @Override
+    public void actionPerformed(AnActionEvent event) {
+        Project project = event.getProject();
+        if (project != null) {
+            String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+            LightVirtualFile file = new LightVirtualFile("ffdec4idea-metrics.txt",
+                    MessageFormat.format(resources.getString("metrics.title"), time) + "\n\n"
+                            + DecompilerMetrics.getInstance().dump());
+            file.setWritable(false);
+            FileEditorManager.getInstance(project).openFile(file, true);
+        }
+    }
+
+    @Override
+    public void update(AnActionEvent event) {
+        event.getPresentation().setEnabled(event.getProject() != null);
+    }
+}
@@ -0,0 +1,378 @@
+package com.epolyakov.ffdec4idea.cli;
+
+import com.epolyakov.ffdec4idea.vfs.DecompilerOptions;
+import com.epolyakov.ffdec4idea.vfs.SwcArchive;
+import com.epolyakov.ffdec4idea.vfs.SwfHandler;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Exports all the classes of the swf files to directory trees of AS files without the IDE, e.g. to archive
+ * the sources of the build artifacts in CI. The classes are decompiled by the same handlers as in the decompiled
+ * swf file system, each swf file is exported to its own directory by a pool of workers. The swc archives are
+ * exported by their library.swf.
+ * The next swf file is loaded while the current one is exported. The classes which exceed the decompile time limit
+ * are exported as their fallback sources and reported.
+ * <p>
+ * Usage: BatchExport [--threads &lt;count&gt;] [--persistent-cache &lt;directory&gt;] --out &lt;directory&gt;
+ * &lt;swf or swc file or directory&gt;...
+ *
+ * @author epolyakov
+ */
+public final class BatchExport {
+
+    private static final ResourceBundle resources = ResourceBundle.getBundle("com.epolyakov.ffdec4idea.resources.ffdec4idea");
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+    private static final String ILLEGAL_FILE_NAME_CHARS = "%/\\:*?\"<>|";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    // The device names of Windows, they cannot be used as file names with any extension.
+    private static final Set<String> RESERVED_FILE_NAMES = new HashSet<>(Arrays.asList(
+            "CON", "PRN", "AUX", "NUL",
+            "COM1", "COM2", "COM3", "COM4", "COM5", "COM6", "COM7", "COM8", "COM9",
+            "LPT1", "LPT2", "LPT3", "LPT4", "LPT5", "LPT6", "LPT7", "LPT8", "LPT9"));
+
+    private final Path outputDirectory;
+    private final ExecutorService workers;
+    private final Set<String> directoryNames = new HashSet<>();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder slowClassCount = new LongAdder();
+
+    private BatchExport(@NotNull Path outputDirectory, int threadCount) {
+        this.outputDirectory = outputDirectory.toAbsolutePath().normalize();
+        this.workers = Executors.newFixedThreadPool(threadCount, r -> {
+            Thread thread = new Thread(r, "ffdec4idea export");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) {
+        Path outputDirectory = null;
+        String persistentCacheDirectory = null;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        List<Path> inputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--out":
+                        outputDirectory = Paths.get(args[++i]);
+                        break;
+                    case "--threads":
+                        threadCount = Integer.parseInt(args[++i]);
+                        break;
+                    case "--persistent-cache":
+                        persistentCacheDirectory = args[++i];
+                        break;
+                    default:
+                        inputs.add(Paths.get(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            outputDirectory = null;
+        }
+        if (outputDirectory == null || inputs.isEmpty() || threadCount < 1) {
+            System.err.println(resources.getString("export.usage"));
+            System.exit(2);
+            return;
+        }
+
+        // The options are set before the first handler reads them.
+        if (persistentCacheDirectory != null) {
+            SwfHandler.setPersistentCacheDirectory(new File(persistentCacheDirectory));
+            System.setProperty("ffdec4idea.persistentCache.enabled", "true");
+        } else {
+            System.setProperty("ffdec4idea.persistentCache.enabled", "false");
+        }
+        boolean succeeded;
+        try {
+            succeeded = new BatchExport(outputDirectory, threadCount).run(findSwfFiles(inputs));
+        } catch (IOException e) {
+            e.printStackTrace();
+            succeeded = false;
+        }
+        // The pool threads of ffdec would keep the virtual machine alive for a while.
+        System.exit(succeeded ? 0 : 1);
+    }
+
+    /**
+     * Exports the swf files one after another.
+     *
+     * @return True if all the classes have been exported.
+     */
+    private boolean run(@NotNull List<Path> swfFiles) {
+        long start = System.nanoTime();
+        long classCount = 0;
+        long byteCount = 0;
+        SwfHandler next = swfFiles.isEmpty() ? null : new SwfHandler(new LocalSwfFile(swfFiles.get(0).toFile()));
+        for (int i = 0; i < swfFiles.size(); i++) {
+            SwfHandler handler = next;
+            // The constructor starts loading the next swf file in background.
+            next = i + 1 < swfFiles.size() ? new SwfHandler(new LocalSwfFile(swfFiles.get(i + 1).toFile())) : null;
+            long[] counts = export(handler, swfFiles.get(i));
+            classCount += counts[0];
+            byteCount += counts[1];
+            handler.unload();
+        }
+        workers.shutdown();
+        System.out.println(format("export.total.result", null, classCount, byteCount, System.nanoTime() - start));
+        if (slowClassCount.sum() > 0) {
+            System.err.println(MessageFormat.format(resources.getString("export.time.limit.total"), slowClassCount.sum()));
+        }
+        return failureCount.sum() == 0;
+    }
+
+    /**
+     * Exports the classes of the swf file in parallel.
+     *
+     * @return The number of the exported classes and their size in bytes.
+     */
+    @NotNull
+    private long[] export(@NotNull SwfHandler handler, @NotNull Path swfFile) {
+        try {
+            handler.getSwf();
+        } catch (IOException e) {
+            System.err.println(MessageFormat.format(resources.getString("export.error"), swfFile, e.getMessage()));
+            failureCount.increment();
+            return new long[2];
+        }
+        Path directory = outputDirectory.resolve(getDirectoryName(swfFile));
+        LongAdder classCount = new LongAdder();
+        LongAdder byteCount = new LongAdder();
+        long start = System.nanoTime();
+        Map<String, Path> files = getSourceFiles(directory, handler.getClassNames());
+        CompletableFuture.allOf(files.entrySet().stream().map(entry -> CompletableFuture.runAsync(() -> {
+            try {
+                Path file = entry.getValue();
+                if (!file.normalize().startsWith(directory)) {
+                    throw new IOException(MessageFormat.format(resources.getString("export.path.error"), file));
+                }
+                byte[] source = handler.contentsToByteArray(entry.getKey());
+                write(file, source);
+                classCount.increment();
+                byteCount.add(source.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, workers).exceptionally(e -> {
+            System.err.println(MessageFormat.format(resources.getString("export.error"), entry.getKey(), e.getMessage()));
+            failureCount.increment();
+            return null;
+        })).toArray(CompletableFuture[]::new)).join();
+        System.out.println(format("export.swf.result", swfFile.getFileName().toString(),
+                classCount.sum(), byteCount.sum(), System.nanoTime() - start));
+        // The classes which have exceeded the decompile time limit are exported as their fallback sources.
+        for (String qName : new TreeSet<>(handler.getSlowClassNames())) {
+            System.err.println(MessageFormat.format(resources.getString("export.time.limit"), qName,
+                    DecompilerOptions.getScriptTimeLimitMillis()));
+            slowClassCount.increment();
+        }
+        return new long[]{classCount.sum(), byteCount.sum()};
+    }
+
+    /**
+     * Gets the files of the classes, the segments of the qualified names come from the bytecode, so they are escaped
+     * to be valid file names. The names in a directory which differ only in case would overwrite each other
+     * on the case-insensitive file systems, so all but the first of them in the sorted order get the numbered names
+     * and are reported.
+     *
+     * @return The files by the qualified names of the classes in the order of the qualified names.
+     */
+    @NotNull
+    private static Map<String, Path> getSourceFiles(@NotNull Path directory, @NotNull List<String> qNames) {
+        ExportNode root = new ExportNode("", "");
+        Map<String, ExportNode> nodes = new LinkedHashMap<>();
+        for (String qName : new TreeSet<>(qNames)) {
+            ExportNode node = root;
+            int start = 0;
+            while (true) {
+                int end = qName.indexOf('.', start);
+                if (end < 0) {
+                    node = node.getChild(escapeFileName(qName.substring(start)), ".as");
+                    break;
+                }
+                node = node.getChild(escapeFileName(qName.substring(start, end)), "");
+                start = end + 1;
+            }
+            nodes.put(qName, node);
+        }
+        root.setPaths(directory);
+        Map<String, Path> files = new LinkedHashMap<>();
+        for (Map.Entry<String, ExportNode> entry : nodes.entrySet()) {
+            files.put(entry.getKey(), entry.getValue().path);
+        }
+        return files;
+    }
+
+    /**
+     * Escapes the characters which are not allowed in file names on some systems as %XX, including the percent sign,
+     * so the different names stay different. The names like "..", "" or "CON" are escaped as a whole.
+     */
+    @NotNull
+    private static String escapeFileName(@NotNull String name) {
+        if (name.isEmpty()) {
+            return "%";
+        }
+        boolean special = name.equals(".") || name.equals("..") || isReservedFileName(name);
+        StringBuilder sb = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            // Windows drops the trailing dots and spaces of file names.
+            boolean trailing = i == name.length() - 1 && (c == '.' || c == ' ');
+            if (special || trailing || c < 0x20 || c == 0x7f || ILLEGAL_FILE_NAME_CHARS.indexOf(c) >= 0) {
+                if (sb == null) {
+                    sb = new StringBuilder(name.length() + 8).append(name, 0, i);
+                }
+                sb.append('%').append(HEX_DIGITS[(c >> 4) & 0xf]).append(HEX_DIGITS[c & 0xf]);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb != null ? sb.toString() : name;
+    }
+
+    private static boolean isReservedFileName(@NotNull String name) {
+        int index = name.indexOf('.');
+        String base = (index >= 0 ? name.substring(0, index) : name).toUpperCase(Locale.ENGLISH);
+        return RESERVED_FILE_NAMES.contains(base);
+    }
+
+    /**
+     * Writes the source with a single write of the channel, the source is buffered as a whole by the handler.
+     */
+    private static void write(@NotNull Path file, @NotNull byte[] source) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(source);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return The name of the swf file without the extension, the swf files with the same names get the numbered
+     * directories.
+     */
+    @NotNull
+    private String getDirectoryName(@NotNull Path swfFile) {
+        String fileName = swfFile.getFileName().toString();
+        int index = fileName.lastIndexOf('.');
+        String name = index > 0 ? fileName.substring(0, index) : fileName;
+        String result = name;
+        // The names which differ only in case are the same directory on the case-insensitive file systems.
+        for (int i = 2; !directoryNames.add(result.toLowerCase(Locale.ENGLISH)); i++) {
+            result = name + "_" + i;
+        }
+        return result;
+    }
+
+    @NotNull
+    private static List<Path> findSwfFiles(@NotNull List<Path> inputs) throws IOException {
+        List<Path> result = new ArrayList<>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> files = Files.walk(input)) {
+                    result.addAll(files.filter(f -> isSwfFile(f.getFileName().toString().toLowerCase()))
+                            .filter(Files::isRegularFile)
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                result.add(input);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isSwfFile(@NotNull String fileName) {
+        return fileName.endsWith(".swf") || fileName.endsWith("." + SwcArchive.EXTENSION);
+    }
+
+    @NotNull
+    private static String format(@NotNull String key, @Nullable String name, long classCount, long byteCount,
+                                 long nanos) {
+        double seconds = Math.max(nanos, 1L) / 1e9;
+        double megabytes = byteCount / MEGABYTE;
+        return MessageFormat.format(resources.getString(key), name, classCount, megabytes, seconds,
+                classCount / seconds, megabytes / seconds);
+    }
+
+    /**
+     * The file or the directory of the export with its children by their escaped names.
+     */
+    private static final class ExportNode {
+
+        private final String name;
+        private final String extension;
+        private final Map<String, ExportNode> children = new TreeMap<>();
+        private Path path;
+
+        private ExportNode(@NotNull String name, @NotNull String extension) {
+            this.name = name;
+            this.extension = extension;
+        }
+
+        @NotNull
+        private ExportNode getChild(@NotNull String name, @NotNull String extension) {
+            return children.computeIfAbsent(name + extension, key -> new ExportNode(name, extension));
+        }
+
+        /**
+         * Sets the paths of the children in the directory and of their descendants. A name which differs only in case
+         * from a preceding one gets the first number which makes it differ from all the other names of the directory.
+         */
+        private void setPaths(@NotNull Path directory) {
+            path = directory;
+            Set<String> names = new HashSet<>();
+            for (String key : children.keySet()) {
+                names.add(key.toLowerCase(Locale.ENGLISH));
+            }
+            Set<String> usedNames = new HashSet<>();
+            for (Map.Entry<String, ExportNode> entry : children.entrySet()) {
+                ExportNode child = entry.getValue();
+                String fileName = entry.getKey();
+                if (!usedNames.add(fileName.toLowerCase(Locale.ENGLISH))) {
+                    for (int i = 2; ; i++) {
+                        fileName = child.name + "_" + i + child.extension;
+                        String lowerCase = fileName.toLowerCase(Locale.ENGLISH);
+                        if (!names.contains(lowerCase) && usedNames.add(lowerCase)) {
+                            break;
+                        }
+                    }
+                    System.err.println(MessageFormat.format(resources.getString("export.name.collision"),
+                            directory.resolve(entry.getKey()), directory.resolve(fileName)));
+                }
+                child.setPaths(directory.resolve(fileName));
+            }
+        }
+    }
+}
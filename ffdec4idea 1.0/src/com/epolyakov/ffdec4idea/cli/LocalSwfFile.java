@@ -0,0 +1,113 @@
+package com.epolyakov.ffdec4idea.cli;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileSystem;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * The swf file on the disk which is read without the local file system of the IDE, so the handlers
+ * can be used headless, e.g. by the batch export and the benchmarks.
+ *
+ * @author epolyakov
+ */
+public class LocalSwfFile extends VirtualFile {
+
+    private final File file;
+
+    public LocalSwfFile(@NotNull File file) {
+        this.file = file;
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return file.getName();
+    }
+
+    @NotNull
+    @Override
+    public VirtualFileSystem getFileSystem() {
+        throw new UnsupportedOperationException("There is no local file system outside of the IDE.");
+    }
+
+    @NotNull
+    @Override
+    public String getPath() {
+        return file.getPath().replace(File.separatorChar, '/');
+    }
+
+    @NotNull
+    @Override
+    public String getUrl() {
+        return "file://" + getPath();
+    }
+
+    @Override
+    public boolean isInLocalFileSystem() {
+        return true;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return false;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return false;
+    }
+
+    @Override
+    public boolean isValid() {
+        return file.isFile();
+    }
+
+    @Override
+    public VirtualFile getParent() {
+        return null;
+    }
+
+    @Override
+    public VirtualFile[] getChildren() {
+        return EMPTY_ARRAY;
+    }
+
+    @NotNull
+    @Override
+    public OutputStream getOutputStream(Object requestor, long newModificationStamp, long newTimeStamp)
+            throws IOException {
+        throw new IOException("The swf file is read only.");
+    }
+
+    @NotNull
+    @Override
+    public byte[] contentsToByteArray() throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Override
+    public long getTimeStamp() {
+        return file.lastModified();
+    }
+
+    @Override
+    public long getLength() {
+        return file.length();
+    }
+
+    @Override
+    public void refresh(boolean asynchronous, boolean recursive, Runnable postRunnable) {
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new FileInputStream(file);
+    }
+}
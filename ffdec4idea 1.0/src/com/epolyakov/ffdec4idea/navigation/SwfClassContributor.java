@@ -0,0 +1,31 @@
+package com.epolyakov.ffdec4idea.navigation;
+
+import com.epolyakov.ffdec4idea.vfs.SwfSymbolIndex;
+import com.intellij.navigation.ChooseByNameContributor;
+import com.intellij.navigation.NavigationItem;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.ArrayUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides the classes and the interfaces of the swf files to Go to Class.
+ *
+ * @author epolyakov
+ */
+public class SwfClassContributor implements ChooseByNameContributor {
+
+    @Override
+    public String[] getNames(Project project, boolean includeNonProjectItems) {
+        return ArrayUtil.toStringArray(SwfSymbolIndex.getInstance().getNames(project, true));
+    }
+
+    @Override
+    public NavigationItem[] getItemsByName(String name, String pattern, Project project, boolean includeNonProjectItems) {
+        List<NavigationItem> items = new ArrayList<>();
+        SwfSymbolIndex.getInstance().processSymbols(project, name, true,
+                (swfFile, symbol) -> items.add(new SwfSymbolNavigationItem(project, swfFile, symbol)));
+        return items.toArray(new NavigationItem[items.size()]);
+    }
+}
@@ -0,0 +1,88 @@
+package com.epolyakov.ffdec4idea.navigation;
+
+import com.epolyakov.ffdec4idea.vfs.DecompiledSwfFileSystem;
+import com.epolyakov.ffdec4idea.vfs.SwfSymbol;
+import com.intellij.lang.javascript.ActionScriptFileType;
+import com.intellij.navigation.ItemPresentation;
+import com.intellij.navigation.NavigationItem;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+
+/**
+ * The item of Go to Class and Go to Symbol popups that opens the decompiled class of the symbol.
+ *
+ * @author epolyakov
+ */
+class SwfSymbolNavigationItem implements NavigationItem, ItemPresentation {
+
+    private final Project project;
+    private final VirtualFile swfFile;
+    private final SwfSymbol symbol;
+
+    SwfSymbolNavigationItem(@NotNull Project project, @NotNull VirtualFile swfFile, @NotNull SwfSymbol symbol) {
+        this.project = project;
+        this.swfFile = swfFile;
+        this.symbol = symbol;
+    }
+
+    @Override
+    public String getName() {
+        return symbol.getName();
+    }
+
+    @Override
+    public ItemPresentation getPresentation() {
+        return this;
+    }
+
+    @Override
+    public String getPresentableText() {
+        return symbol.getName();
+    }
+
+    /**
+     * @return The location like "(com.mypackage in MyLibrary.swf)" for a class or
+     * "(com.mypackage.MyClass in MyLibrary.swf)" for a member.
+     */
+    @Override
+    public String getLocationString() {
+        String qName = symbol.getClassQName();
+        String container = symbol.isClass() ? qName.substring(0, Math.max(qName.lastIndexOf('.'), 0)) : qName;
+        return "(" + (container.isEmpty() ? "" : container + " in ") + swfFile.getName() + ")";
+    }
+
+    @Override
+    public Icon getIcon(boolean unused) {
+        return ActionScriptFileType.INSTANCE.getIcon();
+    }
+
+    /**
+     * Opens the decompiled class at the declaration of the symbol.
+     */
+    @Override
+    public void navigate(boolean requestFocus) {
+        String path = swfFile.getPath() + DecompiledSwfFileSystem.PATH_SEPARATOR + symbol.getClassQName().replace('.', '/');
+        VirtualFile file = DecompiledSwfFileSystem.getInstance().findFileByPath(path);
+        if (file != null) {
+            Document document = symbol.isClass() ? null : FileDocumentManager.getInstance().getDocument(file);
+            int offset = document != null ? symbol.findDeclaration(document.getCharsSequence()) : 0;
+            new OpenFileDescriptor(project, file, offset).navigate(requestFocus);
+        }
+    }
+
+    @Override
+    public boolean canNavigate() {
+        return swfFile.isValid();
+    }
+
+    @Override
+    public boolean canNavigateToSource() {
+        return canNavigate();
+    }
+}
@@ -0,0 +1,262 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.jpexs.decompiler.flash.configuration.Configuration;
+import com.jpexs.decompiler.flash.helpers.CodeFormatting;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The in-memory LRU cache of the decompiled sources shared by all the swf files.
+ * The sources are keyed by the hash of the script and the code formatting settings, so a class embedded
+ * into many swf files is decompiled once and all of them share its source bytes. The hash of the script includes
+ * the context which ffdec looks up in all the DoABC tags of the swf, so the sources are shared only by the swf files
+ * whose ABC tags define the same names and namespaces, e.g. the copies of the same library.
+ * The least recently used sources are evicted when the total size exceeds the byte budget. The lengths of the sources
+ * outlive the sources themselves, their number is bounded by the budget too.
+ *
+ * @author epolyakov
+ */
+final class DecompiledSourceCache {
+
+    private static final Field[] formattingFields = Arrays.stream(CodeFormatting.class.getFields())
+            .filter(f -> !Modifier.isStatic(f.getModifiers()))
+            .sorted(Comparator.comparing(Field::getName))
+            .toArray(Field[]::new);
+
+    // The rough number of the bytes of the budget per remembered length.
+    private static final long BYTES_PER_LENGTH = 1024;
+
+    private static volatile Formatting formatting;
+    private static final DecompiledSourceCache instance = new DecompiledSourceCache(DecompilerOptions.getSourceCacheMaxBytes());
+
+    private final long maxBytes;
+    private final Map<Key, byte[]> sources = new LinkedHashMap<>(16, 0.75f, true);
+    private final LengthMap lengths;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    DecompiledSourceCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        long maxLengths = maxBytes / BYTES_PER_LENGTH;
+        this.lengths = new LengthMap(maxLengths);
+    }
+
+    /**
+     * @return The cache shared by all the handlers, its budget is {@link DecompilerOptions#getSourceCacheMaxBytes()}.
+     */
+    @NotNull
+    static DecompiledSourceCache getInstance() {
+        return instance;
+    }
+
+    @Nullable
+    byte[] get(@NotNull byte[] scriptHash, @NotNull String formattingKey) {
+        byte[] source;
+        long start = System.nanoTime();
+        long lockWait;
+        synchronized (sources) {
+            lockWait = System.nanoTime() - start;
+            source = sources.get(new Key(scriptHash, formattingKey));
+        }
+        (source != null ? hits : misses).incrementAndGet();
+        DecompilerMetrics.getInstance().recordSourceCacheAccess(source != null, lockWait);
+        return source;
+    }
+
+    /**
+     * Gets the length of the source without affecting the statistics and the eviction order of the sources.
+     * The lengths are remembered after the sources are evicted, the least recently used lengths are dropped
+     * when there are more of them than the budget allows.
+     *
+     * @return The length in bytes or -1 if the source has never been cached.
+     */
+    int getLength(@NotNull byte[] scriptHash, @NotNull String formattingKey) {
+        synchronized (sources) {
+            Integer length = lengths.get(new Key(scriptHash, formattingKey));
+            return length != null ? length : -1;
+        }
+    }
+
+    void put(@NotNull byte[] scriptHash, @NotNull String formattingKey, @NotNull byte[] source) {
+        if (source.length > maxBytes) {
+            return;
+        }
+        synchronized (sources) {
+            Key key = new Key(scriptHash, formattingKey);
+            byte[] previous = sources.put(key, source);
+            lengths.put(key, source.length);
+            bytes += source.length - (previous != null ? previous.length : 0);
+            Iterator<byte[]> iterator = sources.values().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                bytes -= iterator.next().length;
+                iterator.remove();
+                evictions.incrementAndGet();
+                DecompilerMetrics.getInstance().recordSourceCacheEviction();
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (sources) {
+            sources.clear();
+            lengths.clear();
+            bytes = 0;
+        }
+    }
+
+    long getBytes() {
+        synchronized (sources) {
+            return bytes;
+        }
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets the current code formatting settings of ffdec with their keys. The keys are built by reflection
+     * only when the formatting options of ffdec have changed since the last call.
+     *
+     * @return The formatting settings.
+     */
+    @NotNull
+    static Formatting getFormatting() {
+        Formatting result = formatting;
+        if (result == null || !result.isCurrent()) {
+            // The options are read before the settings are built, so a concurrent change is noticed on the next call.
+            Object indentSize = Configuration.indentSize.get();
+            Object indentUseTabs = Configuration.indentUseTabs.get();
+            Object beginBlockOnNewLine = Configuration.beginBlockOnNewLine.get();
+            CodeFormatting codeFormatting = Configuration.getCodeFormatting();
+            formatting = result = new Formatting(codeFormatting, getFormattingKey(codeFormatting),
+                    indentSize, indentUseTabs, beginBlockOnNewLine);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the string that identifies the code formatting settings. CodeFormatting does not implement equals,
+     * so the key is built from the values of its public fields.
+     *
+     * @param formatting The code formatting settings.
+     * @return The key like "beginBlockOnNewLine=true;indentString=   ;...".
+     */
+    @NotNull
+    private static String getFormattingKey(@NotNull CodeFormatting formatting) {
+        StringBuilder sb = new StringBuilder();
+        for (Field field : formattingFields) {
+            try {
+                sb.append(field.getName()).append('=').append(field.get(formatting)).append(';');
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The code formatting settings and the keys of the sources decompiled with them. The settings are shared
+     * by the decompiling threads and must not be modified.
+     */
+    static final class Formatting {
+
+        private static final String STUB_KEY_SUFFIX = ";stub";
+        private static final String FALLBACK_KEY_SUFFIX = ";fallback";
+
+        final CodeFormatting codeFormatting;
+        final String key;
+        final String stubKey;
+        final String fallbackKey;
+        // The values of the ffdec options Configuration.getCodeFormatting() reads.
+        private final Object indentSize;
+        private final Object indentUseTabs;
+        private final Object beginBlockOnNewLine;
+
+        private Formatting(@NotNull CodeFormatting codeFormatting, @NotNull String key, Object indentSize,
+                           Object indentUseTabs, Object beginBlockOnNewLine) {
+            this.codeFormatting = codeFormatting;
+            this.key = key;
+            this.stubKey = key + STUB_KEY_SUFFIX;
+            this.fallbackKey = key + FALLBACK_KEY_SUFFIX;
+            this.indentSize = indentSize;
+            this.indentUseTabs = indentUseTabs;
+            this.beginBlockOnNewLine = beginBlockOnNewLine;
+        }
+
+        private boolean isCurrent() {
+            return Objects.equals(indentSize, Configuration.indentSize.get())
+                    && Objects.equals(indentUseTabs, Configuration.indentUseTabs.get())
+                    && Objects.equals(beginBlockOnNewLine, Configuration.beginBlockOnNewLine.get());
+        }
+    }
+
+    private static final class Key {
+
+        private final byte[] scriptHash;
+        private final String formattingKey;
+
+        private Key(@NotNull byte[] scriptHash, @NotNull String formattingKey) {
+            this.scriptHash = scriptHash;
+            this.formattingKey = formattingKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Arrays.equals(scriptHash, key.scriptHash) && formattingKey.equals(key.formattingKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(scriptHash) + formattingKey.hashCode();
+        }
+    }
+
+    /**
+     * The lengths of the sources in the access order, the least recently used lengths are dropped over the maximum size.
+     */
+    private static final class LengthMap extends LinkedHashMap<Key, Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long maxSize;
+
+        private LengthMap(long maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.AbstractProjectComponent;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerAdapter;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Requests the full sources of the decompiled classes opened in the editors. The editor shows the stub until the full
+ * source is decompiled in background, then the class is switched to it and the content change event makes the editor
+ * reload the class.
+ *
+ * @author epolyakov
+ */
+public class DecompiledSwfEditorTracker extends AbstractProjectComponent {
+
+    public DecompiledSwfEditorTracker(Project project) {
+        super(project);
+    }
+
+    @Override
+    public void projectOpened() {
+        myProject.getMessageBus().connect().subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER,
+                new FileEditorManagerAdapter() {
+                    @Override
+                    public void fileOpened(@NotNull FileEditorManager source, @NotNull VirtualFile file) {
+                        if (file instanceof DecompiledSwfFile) {
+                            requestFullSource((DecompiledSwfFile) file);
+                        }
+                    }
+                });
+    }
+
+    private void requestFullSource(@NotNull DecompiledSwfFile file) {
+        SwfHandler handler = file.getHandler();
+        String qName = file.getQualifiedName();
+        if (!file.isDirectory() && handler.isStub(qName)) {
+            ApplicationManager.getApplication().executeOnPooledThread(() -> {
+                try {
+                    // Fill the source cache, so the editor does not wait for the decompilation when it reloads.
+                    handler.contentsToByteArray(qName);
+                    handler.requestFullSource(qName);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+}
@@ -3,15 +3,24 @@ package com.epolyakov.ffdec4idea.vfs;
 import com.intellij.lang.javascript.ActionScriptFileType;
 import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.util.io.BufferExposingByteArrayInputStream;
+import com.intellij.util.ArrayUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileSystem;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author epolyakov
@@ -20,10 +29,17 @@ public class DecompiledSwfFile extends VirtualFile {
 
     private static final ResourceBundle resources = ResourceBundle.getBundle("com.epolyakov.ffdec4idea.resources.ffdec4idea");
 
-    private SwfHandler handler;
-    private VirtualFile parent;
-    private String name;
-    private boolean isRoot;
+    private final SwfHandler handler;
+    private final VirtualFile parent;
+    private final String name;
+    // The kind is fixed when the file is created, the file becomes invalid if its node is of the other kind
+    // in a later tree and another file is created for the node.
+    private final boolean isDirectory;
+    // The files of the swf file, only the root has it.
+    private final Index index;
+    // The generation of the tree in the high bits and the node of the file in it in the low bits,
+    // the node is resolved again by the name when the tree of the swf file is rebuilt. 0 if it is not resolved yet.
+    private volatile long position;
 
     /**
      * Constructs the root file with the name of the swf file.
@@ -35,7 +51,8 @@ public class DecompiledSwfFile extends VirtualFile {
         this.handler = handler;
         this.parent = swfFile;
         this.name = swfFile.getName();
-        this.isRoot = true;
+        this.isDirectory = true;
+        this.index = new Index();
     }
 
     /**
@@ -44,12 +61,17 @@ public class DecompiledSwfFile extends VirtualFile {
      * @param handler
      * @param name
      * @param parent
+     * @param position    The position of the file in the tree or 0 if the tree is not loaded yet.
+     * @param isDirectory True for a package.
      */
-    public DecompiledSwfFile(@NotNull SwfHandler handler, @NotNull String name, @NotNull DecompiledSwfFile parent) {
+    private DecompiledSwfFile(@NotNull SwfHandler handler, @NotNull String name, @NotNull DecompiledSwfFile parent,
+                              long position, boolean isDirectory) {
         this.handler = handler;
         this.name = name;
         this.parent = parent;
-        this.isRoot = false;
+        this.isDirectory = isDirectory;
+        this.index = null;
+        this.position = position;
     }
 
     @NotNull
@@ -70,32 +92,36 @@ public class DecompiledSwfFile extends VirtualFile {
         return DecompiledSwfFileSystem.getInstance();
     }
 
+    /**
+     * The path is built on each call, the files do not keep it.
+     */
     @NotNull
     @Override
     public String getPath() {
-        if (isRoot) {
+        if (isRoot()) {
             return parent.getPath();
         }
-        String path = parent.getPath();
-        if (((DecompiledSwfFile) parent).isRoot()) {
-            return path + DecompiledSwfFileSystem.PATH_SEPARATOR + name;
-        }
-        return path + '/' + name;
+        StringBuilder sb = new StringBuilder(getRoot().getPath()).append(DecompiledSwfFileSystem.PATH_SEPARATOR);
+        appendName(sb, '/');
+        return sb.toString();
     }
 
+    /**
+     * @return The qualified name of the class or the package, it is kept by the tree of the swf file.
+     */
     @NotNull
     public String getQualifiedName() {
-        if (isRoot) {
+        if (isRoot()) {
             return "";
         }
-        StringBuilder qName = new StringBuilder(name);
-        VirtualFile p = parent;
-        while (!((DecompiledSwfFile) p).isRoot()) {
-            qName.insert(0, '.');
-            qName.insert(0, p.getName());
-            p = p.getParent();
+        Table table = getRoot().getTable();
+        int node = table != null ? getNode(table.shape) : ScriptPackTree.NONE;
+        if (node != ScriptPackTree.NONE) {
+            return table.shape.getQualifiedName(node);
         }
-        return qName.toString();
+        StringBuilder sb = new StringBuilder();
+        appendName(sb, '.');
+        return sb.toString();
     }
 
     @Override
@@ -103,18 +129,39 @@ public class DecompiledSwfFile extends VirtualFile {
         return false;
     }
 
+    @NotNull
+    public SwfHandler getHandler() {
+        return handler;
+    }
+
     public boolean isRoot() {
-        return isRoot;
+        return index != null;
     }
 
+    /**
+     * The kind of the file never changes. The files looked up while the swf file is loading are classes
+     * unless they are the parents of other files.
+     */
     @Override
     public boolean isDirectory() {
-        return isRoot || handler.isPackage(getQualifiedName());
+        return isDirectory;
     }
 
+    /**
+     * While the swf file is loading on the event dispatch thread any file looks valid.
+     * The file is invalid if there is no such node in the tree or the node is of the other kind.
+     */
     @Override
     public boolean isValid() {
-        return isRoot ? parent.isValid() : handler.isPackageOrClass(getQualifiedName());
+        if (isRoot()) {
+            return parent.isValid();
+        }
+        Table table = getRoot().getTable();
+        if (table == null) {
+            return true;
+        }
+        int node = getNode(table.shape);
+        return node != ScriptPackTree.NONE && table.shape.isPackage(node) == isDirectory;
     }
 
     @Override
@@ -122,25 +169,193 @@ public class DecompiledSwfFile extends VirtualFile {
         return parent;
     }
 
+    /**
+     * While the swf file is loading on the event dispatch thread the root has the only child which is the placeholder
+     * of the loading, it is replaced by the packages and the classes with the file events when the swf file is loaded.
+     */
     @Override
     public VirtualFile[] getChildren() {
-        String[] names = getChildrenNames();
-        VirtualFile[] files = new VirtualFile[names.length];
-        for (int i = 0; i < names.length; i++) {
-            files[i] = DecompiledSwfFileSystem.getInstance().getDecompiledFile(handler, names[i], this);
+        DecompiledSwfFile root = getRoot();
+        Table table = root.getTable();
+        if (table == null && isRoot()) {
+            return new VirtualFile[]{getLoadingFile()};
+        }
+        int node = table != null ? getNode(table.shape) : ScriptPackTree.NONE;
+        if (node == ScriptPackTree.NONE) {
+            return EMPTY_ARRAY;
+        }
+        VirtualFile[] files = new VirtualFile[table.shape.getChildCount(node)];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = root.getFile(table, table.shape.getChild(node, i));
         }
         return files;
     }
 
+    /**
+     * Finds the child file without creating the files of other children. While the swf file is loading
+     * on the event dispatch thread any child is found.
+     *
+     * @param name The name of the child package or class.
+     * @return The child file or null if there is no such child.
+     */
+    @Nullable
+    @Override
+    public VirtualFile findChild(@NotNull String name) {
+        DecompiledSwfFile root = getRoot();
+        Table table = root.getTable();
+        if (table == null) {
+            if (isRoot() && name.equals(resources.getString("swf.loading.file"))) {
+                return getLoadingFile();
+            }
+            return root.getPendingFile(isRoot() ? name : getQualifiedName() + '.' + name, false);
+        }
+        int node = getNode(table.shape);
+        int child = node != ScriptPackTree.NONE ? table.shape.findChild(node, name, 0, name.length()) : ScriptPackTree.NONE;
+        return child != ScriptPackTree.NONE ? root.getFile(table, child) : null;
+    }
+
+    /**
+     * Finds the file of the root by the path relative to the root. The path is walked by the indices of its
+     * segments and the empty segments are skipped.
+     *
+     * @param path   The path which may have a prefix before the start index.
+     * @param start  The start index of the relative path.
+     * @param create True if the file is created if it is not created yet.
+     * @return The file or null if there is no such package or class or it is not created yet.
+     */
+    @Nullable
+    DecompiledSwfFile findFile(@NotNull String path, int start, boolean create) {
+        Table table = getTable();
+        if (table == null) {
+            String qName = toQualifiedName(path, start);
+            if (qName.isEmpty()) {
+                return this;
+            }
+            return create ? getPendingFile(qName, false) : index.pending.get(qName);
+        }
+        int node = ScriptPackTree.ROOT;
+        int length = path.length();
+        while (start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                node = table.shape.findChild(node, path, start, end);
+                if (node == ScriptPackTree.NONE) {
+                    return null;
+                }
+            }
+            start = end + 1;
+        }
+        if (node == ScriptPackTree.ROOT) {
+            return this;
+        }
+        return create ? getFile(table, node) : table.files.get(node);
+    }
+
+    /**
+     * Finds the file of the root by the qualified name if it has been created before.
+     */
+    @Nullable
+    DecompiledSwfFile findCachedFile(@NotNull String qName) {
+        Table table = index.table;
+        if (table == null) {
+            return index.pending.get(qName);
+        }
+        int node = table.shape.find(qName);
+        return node != ScriptPackTree.NONE ? table.files.get(node) : null;
+    }
+
+    /**
+     * @return The number of the files of the root which have been created, including the root.
+     */
+    long getCachedFileCount() {
+        long count = 1;
+        Table table = index.table;
+        if (table == null) {
+            count += index.pending.size();
+        } else {
+            for (int i = 0; i < table.files.length(); i++) {
+                if (table.files.get(i) != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Takes the loading placeholder of the root once the swf file is loaded.
+     *
+     * @return The placeholder or null if it has not been shown or the swf file is still loading.
+     */
+    @Nullable
+    DecompiledSwfFile takeLoadingFile() {
+        getTable();
+        synchronized (index) {
+            if (index.table == null) {
+                return null;
+            }
+            DecompiledSwfFile file = index.loadingFile;
+            index.loadingFile = null;
+            return file;
+        }
+    }
+
+    /**
+     * Takes the files of the root which have been looked up while the swf file was loading, once it is loaded.
+     * The files whose nodes turn out to be of the other kind or missing are invalid.
+     *
+     * @return The files or the empty list if there are no such files or the swf file is still loading.
+     */
+    @NotNull
+    List<DecompiledSwfFile> takeLoadedFiles() {
+        getTable();
+        synchronized (index) {
+            if (index.table == null || index.loadedFiles.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<DecompiledSwfFile> files = index.loadedFiles;
+            index.loadedFiles = new ArrayList<>();
+            return files;
+        }
+    }
+
+    /**
+     * @return The copy of the names of the children.
+     */
     @NotNull
     public String[] getChildrenNames() {
-        return isRoot ? handler.getRootContents() : handler.getPackageContents(getQualifiedName());
+        Table table = getRoot().getTable();
+        if (table == null && isRoot()) {
+            return new String[]{resources.getString("swf.loading.file")};
+        }
+        int node = table != null ? getNode(table.shape) : ScriptPackTree.NONE;
+        return node != ScriptPackTree.NONE ? table.shape.getChildrenNames(node) : ArrayUtil.EMPTY_STRING_ARRAY;
     }
 
+    /**
+     * Gets the decompiled class or its stub if the full source has not been requested yet.
+     * The content does not depend on the reading thread, the class is switched to the full source
+     * by {@link SwfHandler#requestFullSource(String)} with the content change event.
+     * While the swf file is loading on the event dispatch thread the content is the loading comment with
+     * the modification stamp 0, it is replaced with the content change event when the swf file is loaded.
+     */
     @NotNull
     @Override
     public byte[] contentsToByteArray() throws IOException {
-        return handler.contentsToByteArray(getQualifiedName());
+        DecompiledSwfFile root = getRoot();
+        if (root.getTable() == null) {
+            return MessageFormat.format(resources.getString("swf.loading.comment"), root.getName())
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        String qName = getQualifiedName();
+        if (handler.isStub(qName)) {
+            return handler.getStubSource(qName);
+        }
+        PreDecompileTask.startIfNeeded(null, handler, qName);
+        return handler.contentsToByteArray(qName);
     }
 
     @Override
@@ -159,23 +374,261 @@ public class DecompiledSwfFile extends VirtualFile {
     public void refresh(boolean asynchronous, boolean recursive, Runnable postRunnable) {
     }
 
+    /**
+     * Gets the time stamp of the swf file where the class has changed last time.
+     * The root and the packages have the time stamp of the swf file.
+     */
     @Override
     public long getTimeStamp() {
-        return 0L;
+        if (isRoot()) {
+            return parent.getTimeStamp();
+        }
+        return isDirectory() ? handler.getSwfTimeStamp() : handler.getTimeStamp(getQualifiedName());
     }
 
+    /**
+     * Gets the length of the decompiled class if it is known from the caches, the class is never decompiled here.
+     *
+     * @return The length in bytes or 0 for packages and classes that have not been decompiled yet.
+     */
     @Override
     public long getLength() {
-        try {
-            return contentsToByteArray().length;
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (isRoot() || isDirectory()) {
             return 0L;
         }
+        return Math.max(handler.getCachedLength(getQualifiedName()), 0L);
     }
 
+    /**
+     * Gets the modification stamp of the class derived from its bytecode, it stays the same while the class does not change.
+     * The root has the modification stamp of the swf file, the packages have no content and their stamp is 0.
+     */
     @Override
     public long getModificationStamp() {
-        return 0L;
+        if (isRoot()) {
+            return parent.getModificationStamp();
+        }
+        return isDirectory() ? 0L : handler.getModificationStamp(getQualifiedName());
+    }
+
+    @NotNull
+    private DecompiledSwfFile getRoot() {
+        DecompiledSwfFile file = this;
+        while (!file.isRoot()) {
+            file = (DecompiledSwfFile) file.parent;
+        }
+        return file;
+    }
+
+    private void appendName(@NotNull StringBuilder sb, char separator) {
+        DecompiledSwfFile p = (DecompiledSwfFile) parent;
+        if (!p.isRoot()) {
+            p.appendName(sb, separator);
+            sb.append(separator);
+        }
+        sb.append(name);
+    }
+
+    /**
+     * Gets the node of the file in the tree, it is resolved by the names of the file and its parents
+     * once per tree.
+     *
+     * @return The node or {@link ScriptPackTree#NONE} if there is no such package or class in the tree.
+     */
+    private int getNode(@NotNull ScriptPackTree tree) {
+        if (isRoot()) {
+            return ScriptPackTree.ROOT;
+        }
+        long p = position;
+        if ((int) (p >>> 32) == tree.getGeneration()) {
+            return (int) p;
+        }
+        int parentNode = ((DecompiledSwfFile) parent).getNode(tree);
+        int node = parentNode != ScriptPackTree.NONE
+                ? tree.findChild(parentNode, name, 0, name.length()) : ScriptPackTree.NONE;
+        position = toPosition(tree, node);
+        return node;
+    }
+
+    private static long toPosition(@NotNull ScriptPackTree tree, int node) {
+        return (long) tree.getGeneration() << 32 | node & 0xffffffffL;
+    }
+
+    /**
+     * Gets the table of the files of the root by the nodes of the latest tree. When the tree is rebuilt,
+     * the files which have been created before are moved to their nodes in the new tree, so the IDE keeps getting
+     * the same files for the same paths.
+     *
+     * @return The table or null if the swf file has not been loaded yet and the current thread is the event
+     * dispatch thread.
+     */
+    @Nullable
+    private Table getTable() {
+        ScriptPackTree tree = handler.getLoadedTree();
+        Table table = index.table;
+        if (tree == null || table != null && table.shape.getGeneration() >= tree.getGeneration()) {
+            return table;
+        }
+        synchronized (index) {
+            table = index.table;
+            if (table == null || table.shape.getGeneration() < tree.getGeneration()) {
+                Table next = new Table(tree.getShape());
+                if (table != null) {
+                    for (int i = 0; i < table.files.length(); i++) {
+                        DecompiledSwfFile file = table.files.get(i);
+                        if (file != null) {
+                            next.put(file);
+                        }
+                    }
+                }
+                for (DecompiledSwfFile file : index.pending.values()) {
+                    next.put(file);
+                }
+                index.table = table = next;
+                index.pending.clear();
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Gets the file of the node of the root, the file and its parents are created once per path.
+     */
+    @NotNull
+    private DecompiledSwfFile getFile(@NotNull Table table, int node) {
+        DecompiledSwfFile file = table.files.get(node);
+        if (file != null) {
+            return file;
+        }
+        synchronized (index) {
+            Table current = index.table;
+            if (current != table) {
+                // The tree has been rebuilt since the node was found, so the file is taken from the new table.
+                int currentNode = current.shape.find(table.shape.getQualifiedName(node));
+                if (currentNode != ScriptPackTree.NONE) {
+                    return getFile(current, currentNode);
+                }
+            }
+            file = table.files.get(node);
+            if (file == null) {
+                int parentNode = table.shape.getParent(node);
+                DecompiledSwfFile parentFile = parentNode == ScriptPackTree.ROOT ? this : getFile(table, parentNode);
+                file = new DecompiledSwfFile(handler, table.shape.getName(node), parentFile,
+                        toPosition(table.shape, node), table.shape.isPackage(node));
+                table.files.set(node, file);
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Gets the file looked up while the swf file is loading, it is moved to the table when the tree is built.
+     * The kind of the node is not known yet, so the file is a class unless it is the parent of another file.
+     *
+     * @param qName       The qualified name.
+     * @param isDirectory True if the file must be a package. A class file with the same name is replaced then,
+     *                    it becomes invalid when the swf file is loaded.
+     */
+    @NotNull
+    private DecompiledSwfFile getPendingFile(@NotNull String qName, boolean isDirectory) {
+        DecompiledSwfFile file = index.pending.get(qName);
+        if (file != null && (file.isDirectory || !isDirectory)) {
+            return file;
+        }
+        synchronized (index) {
+            if (index.table != null) {
+                // The tree has been built since, the pending files are not kept anymore.
+                DecompiledSwfFile found = findFile(qName.replace('.', '/'), 0, true);
+                if (found != null) {
+                    return found;
+                }
+            }
+            file = index.pending.get(qName);
+            if (file == null || isDirectory && !file.isDirectory) {
+                int dot = qName.lastIndexOf('.');
+                DecompiledSwfFile parentFile = dot < 0 ? this : getPendingFile(qName.substring(0, dot), true);
+                file = new DecompiledSwfFile(handler, qName.substring(dot + 1), parentFile, 0L, isDirectory);
+                index.pending.put(qName, file);
+                index.loadedFiles.add(file);
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Gets the placeholder child of the root which is shown while the swf file is loading.
+     */
+    @NotNull
+    private DecompiledSwfFile getLoadingFile() {
+        synchronized (index) {
+            if (index.loadingFile == null) {
+                index.loadingFile = new DecompiledSwfFile(handler, resources.getString("swf.loading.file"), this, 0L, false);
+            }
+            return index.loadingFile;
+        }
+    }
+
+    /**
+     * @return The qualified name of the path relative to the root, the empty segments are skipped.
+     */
+    @NotNull
+    private static String toQualifiedName(@NotNull String path, int start) {
+        StringBuilder sb = new StringBuilder(path.length() - start);
+        int length = path.length();
+        while (start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                if (sb.length() > 0) {
+                    sb.append('.');
+                }
+                sb.append(path, start, end);
+            }
+            start = end + 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The files of the swf file, the root keeps them, so dropping the root drops all of them.
+     */
+    private static final class Index {
+
+        // The table of the latest tree, it is replaced when the tree is rebuilt.
+        private volatile Table table;
+        // The files looked up by their qualified names before the tree is built.
+        private final ConcurrentMap<String, DecompiledSwfFile> pending = new ConcurrentHashMap<>();
+        // All the files created while the swf file is loading, including the replaced ones, until the file system
+        // takes them after the tree is built. It is guarded by the index.
+        private List<DecompiledSwfFile> loadedFiles = new ArrayList<>();
+        // The placeholder child of the root while the swf file is loading, guarded by the index.
+        private DecompiledSwfFile loadingFile;
+    }
+
+    /**
+     * The files by the nodes of a tree, the tree is kept without its script packs.
+     */
+    private static final class Table {
+
+        private final ScriptPackTree shape;
+        private final AtomicReferenceArray<DecompiledSwfFile> files;
+
+        private Table(@NotNull ScriptPackTree shape) {
+            this.shape = shape;
+            this.files = new AtomicReferenceArray<>(shape.getNodeCount());
+        }
+
+        /**
+         * Puts the file to its node if the node is still in the tree and is of the same kind,
+         * the other files are dropped.
+         */
+        private void put(@NotNull DecompiledSwfFile file) {
+            int node = file.getNode(shape);
+            if (node != ScriptPackTree.NONE && node != ScriptPackTree.ROOT && shape.isPackage(node) == file.isDirectory) {
+                files.compareAndSet(node, null, file);
+            }
+        }
     }
 }
@@ -1,9 +1,15 @@
 package com.epolyakov.ffdec4idea.vfs;
 
-import com.intellij.openapi.util.Couple;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.util.io.FileAttributes;
 import com.intellij.openapi.vfs.*;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFileSystem;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
 import com.jpexs.decompiler.flash.SWF;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -12,9 +18,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -26,10 +40,15 @@ public class DecompiledSwfFileSystem extends NewVirtualFileSystem {
     public static final String PATH_SEPARATOR = "!/";
     private static final ResourceBundle resources = ResourceBundle.getBundle("com.epolyakov.ffdec4idea.resources.ffdec4idea");
 
-    private final Map<String, SwfHandler> handlers = new HashMap<>();
-    private final Map<String, DecompiledSwfFile> files = new HashMap<>();
+    // The root decompiled files by the paths of the swf files, each root keeps the tree of its packages and classes.
+    private final ConcurrentMap<RootKey, DecompiledSwfFile> roots = new ConcurrentHashMap<>();
+    // The keys which are reused by each thread to look up the roots by the prefixes of the paths.
+    private final ThreadLocal<RootKey> lookupKeys = ThreadLocal.withInitial(RootKey::new);
 
-    private boolean isFileListenerSet;
+    private final AtomicBoolean isFileListenerSet = new AtomicBoolean();
+    private volatile SwfMemoryManager memoryManager;
+    // The previous modification stamps of the changed classes by their roots, the events are fired in batches.
+    private final Map<DecompiledSwfFile, Map<String, Long>> pendingChanges = new HashMap<>();
 
     public static DecompiledSwfFileSystem getInstance() {
         return (DecompiledSwfFileSystem) VirtualFileManager.getInstance().getFileSystem("swf");
@@ -49,61 +68,76 @@ public class DecompiledSwfFileSystem extends NewVirtualFileSystem {
     @Nullable
     @Override
     public VirtualFile findFileByPath(@NotNull String path) {
-        synchronized (files) {
-            if (files.containsKey(path)) {
-                return files.get(path);
+        DecompilerMetrics.getInstance().recordLookup();
+        int index = getSeparatorIndex(path);
+        DecompiledSwfFile root = findRoot(path, index);
+        if (root == null) {
+            VirtualFile swfFile = LocalFileSystem.getInstance().findFileByPath(path.substring(0, index));
+            if (swfFile == null) {
+                return null;
             }
-            Couple<String> couple = splitPath(path);
-            VirtualFile swfFile = LocalFileSystem.getInstance().findFileByPath(couple.first);
-            return getDecompiledFile(swfFile, couple.second);
+            root = getRoot(swfFile);
         }
+        return root.findFile(path, index + PATH_SEPARATOR.length(), true);
     }
 
     @Nullable
     @Override
     public VirtualFile refreshAndFindFileByPath(@NotNull String path) {
-        synchronized (files) {
-            files.clear();
-            Couple<String> couple = splitPath(path);
-            VirtualFile swfFile = LocalFileSystem.getInstance().refreshAndFindFileByPath(couple.first);
-            return getDecompiledFile(swfFile, couple.second);
+        DecompilerMetrics.getInstance().recordLookup();
+        int index = getSeparatorIndex(path);
+        String swfPath = path.substring(0, index);
+        VirtualFile swfFile = LocalFileSystem.getInstance().refreshAndFindFileByPath(swfPath);
+        if (swfFile == null) {
+            roots.remove(new RootKey(swfPath));
+            return null;
         }
+        setFileListener();
+        // Only the file tree of this swf file is recreated, its handler is kept and reloaded by the file listener
+        // if the swf changed. The root is replaced atomically, so a concurrent lookup never creates another handler.
+        DecompiledSwfFile root = roots.compute(new RootKey(swfPath), (key, oldRoot) -> oldRoot != null
+                ? new DecompiledSwfFile(oldRoot.getHandler(), swfFile)
+                : createRoot(swfFile, swfPath));
+        return root.findFile(path, index + PATH_SEPARATOR.length(), true);
     }
 
     @Nullable
     @Override
     public VirtualFile findFileByPathIfCached(@NotNull String path) {
-        synchronized (files) {
-            if (files.containsKey(path)) {
-                return files.get(path);
-            }
-            return null;
-        }
+        DecompilerMetrics.getInstance().recordLookup();
+        int index = getSeparatorIndex(path);
+        DecompiledSwfFile root = findRoot(path, index);
+        return root != null ? root.findFile(path, index + PATH_SEPARATOR.length(), false) : null;
     }
 
     @Override
     public void refresh(boolean asynchronous) {
-        synchronized (handlers) {
-            handlers.clear();
-        }
-        synchronized (files) {
-            files.clear();
-        }
+        roots.clear();
     }
 
+    /**
+     * Drops the handler and the decompiled files of the swf file, the other swf files are not affected.
+     *
+     * @param file The swf file.
+     */
     public void refresh(@NotNull VirtualFile file) {
-        synchronized (handlers) {
-            String path = file.getPath();
-            if (handlers.containsKey(path)) {
-                handlers.remove(path);
-
-                synchronized (files) {
-                    files.keySet().stream()
-                            .filter(key -> key.startsWith(path))
-                            .collect(Collectors.toList())
-                            .forEach(files::remove);
-                }
-            }
+        roots.remove(new RootKey(file.getPath()));
+    }
+
+    /**
+     * Reloads the rebuilt swf file. The decompiled files of the unchanged classes and their cached sources stay valid,
+     * the content change events are fired only for the changed classes.
+     *
+     * @param file The swf file.
+     */
+    public void reload(@NotNull VirtualFile file) {
+        String path = file.getPath();
+        DecompiledSwfFile root = findRoot(path, path.length());
+        if (root != null) {
+            root.getHandler().reload(file).thenAccept(stamps -> {
+                fireContentsChanged(root, stamps);
+                SwfSymbolIndex.getInstance().updateLater(file, root.getHandler());
+            });
         }
     }
 
@@ -134,7 +168,7 @@ public class DecompiledSwfFileSystem extends NewVirtualFileSystem {
     @Nullable
     @Override
     public FileAttributes getAttributes(@NotNull VirtualFile file) {
-        return new FileAttributes(file.isDirectory(), false, false, false, file.getLength(), 0L, false);
+        return new FileAttributes(file.isDirectory(), false, false, false, file.getLength(), file.getTimeStamp(), false);
     }
 
     @Override
@@ -158,7 +192,7 @@ public class DecompiledSwfFileSystem extends NewVirtualFileSystem {
 
     @Override
     public long getTimeStamp(@NotNull VirtualFile file) {
-        return -1L;
+        return file.getTimeStamp();
     }
 
     @Override
@@ -213,21 +247,99 @@ public class DecompiledSwfFileSystem extends NewVirtualFileSystem {
         throw new IOException(MessageFormat.format(resources.getString("swf.modification.not.supported.error"), parent.getUrl()));
     }
 
+    /**
+     * Gets the swf object, waits for the swf file to be loaded if needed.
+     *
+     * @param file The swf file.
+     * @return The swf object.
+     * @throws IOException If the swf file cannot be read or parsed.
+     */
     @NotNull
-    public SWF getSwf(@NotNull VirtualFile file) {
-        return getHandler(file).getSwf();
+    public SWF getSwf(@NotNull VirtualFile file) throws IOException {
+        return getRoot(file).getHandler().getSwf();
+    }
+
+    /**
+     * Gets the handler of the swf file, the swf file starts loading in background if it is not loaded.
+     */
+    @NotNull
+    SwfHandler getHandler(@NotNull VirtualFile file) {
+        return getRoot(file).getHandler();
+    }
+
+    /**
+     * @return The handler of the swf file if its decompiled files have been created, no handler is created here.
+     */
+    @Nullable
+    SwfHandler findHandler(@NotNull VirtualFile file) {
+        String path = file.getPath();
+        DecompiledSwfFile root = findRoot(path, path.length());
+        return root != null ? root.getHandler() : null;
     }
 
     @NotNull
-    private SwfHandler getHandler(@NotNull VirtualFile file) {
+    private DecompiledSwfFile getRoot(@NotNull VirtualFile swfFile) {
         setFileListener();
-        synchronized (handlers) {
-            String path = file.getPath();
-            if (!handlers.containsKey(path)) {
-                handlers.put(path, new SwfHandler(file));
+        String swfPath = swfFile.getPath();
+        DecompiledSwfFile root = findRoot(swfPath, swfPath.length());
+        // The handler is constructed at most once per path, the construction only starts loading the swf in background.
+        if (root != null) {
+            return root;
+        }
+        // The wait for another thread that creates a root in the same bin of the map, the creation itself is excluded.
+        long[] creationNanos = new long[1];
+        long start = System.nanoTime();
+        root = roots.computeIfAbsent(new RootKey(swfPath), key -> {
+            long creationStart = System.nanoTime();
+            DecompiledSwfFile result = createRoot(swfFile, swfPath);
+            creationNanos[0] = System.nanoTime() - creationStart;
+            return result;
+        });
+        DecompilerMetrics.getInstance().recordFileSystemLockWait(System.nanoTime() - start - creationNanos[0]);
+        return root;
+    }
+
+    /**
+     * Creates the root with a new handler, it is called within the atomic update of the roots.
+     */
+    @NotNull
+    private DecompiledSwfFile createRoot(@NotNull VirtualFile swfFile, @NotNull String path) {
+        SwfMemoryManager manager = getMemoryManager();
+        DecompilerMetrics.getInstance().setFileSystem(this);
+        return new DecompiledSwfFile(new SwfHandler(swfFile, () -> {
+            manager.trimLater();
+            fireLoadedLater(path);
+        }, stamps -> {
+            // The root may have been recreated with the same handler since.
+            DecompiledSwfFile current = findRoot(path, path.length());
+            if (current != null) {
+                fireContentsChanged(current, stamps);
+            }
+        }), swfFile);
+    }
+
+    /**
+     * @return The root decompiled files of the mounted swf files.
+     */
+    @NotNull
+    Collection<DecompiledSwfFile> getRoots() {
+        return roots.values();
+    }
+
+    @NotNull
+    private SwfMemoryManager getMemoryManager() {
+        SwfMemoryManager result = memoryManager;
+        if (result == null) {
+            synchronized (this) {
+                result = memoryManager;
+                if (result == null) {
+                    memoryManager = result = new SwfMemoryManager(() -> roots.values().stream()
+                            .map(DecompiledSwfFile::getHandler)
+                            .collect(Collectors.toList()));
+                }
             }
-            return handlers.get(path);
         }
+        return result;
     }
 
     @NotNull
@@ -238,56 +350,152 @@ public class DecompiledSwfFileSystem extends NewVirtualFileSystem {
         return path.substring(0, index + PATH_SEPARATOR.length());
     }
 
-    @NotNull
-    private Couple<String> splitPath(@NotNull String path) {
+    private int getSeparatorIndex(@NotNull String path) {
         final int index = path.indexOf(PATH_SEPARATOR);
         assert index >= 0 : MessageFormat.format(resources.getString("swf.incorrect.path.error"), path);
-        return Couple.of(path.substring(0, index), path.substring(index + PATH_SEPARATOR.length()));
+        return index;
     }
 
+    /**
+     * Finds the root by the path of the swf file which is the prefix of the given path, the prefix is not copied.
+     *
+     * @param path   The path.
+     * @param length The length of the path of the swf file.
+     * @return The root or null if the swf file is not mounted.
+     */
     @Nullable
-    private DecompiledSwfFile getDecompiledFile(VirtualFile swfFile, @NotNull String relativePath) {
-        if (swfFile == null) {
-            return null;
+    private DecompiledSwfFile findRoot(@NotNull String path, int length) {
+        RootKey key = lookupKeys.get();
+        try {
+            return roots.get(key.set(path, length));
+        } finally {
+            key.set("", 0);
+        }
+    }
+
+    /**
+     * Fires the content change events of the classes. The changes are collected until the event dispatch thread
+     * fires them, so many classes that change one by one are reported in a few batches.
+     *
+     * @param root   The root of the swf file.
+     * @param stamps The qualified names of the changed classes mapped to their previous modification stamps.
+     */
+    private void fireContentsChanged(@NotNull DecompiledSwfFile root, @NotNull Map<String, Long> stamps) {
+        if (stamps.isEmpty()) {
+            return;
+        }
+        boolean isScheduled;
+        long start = System.nanoTime();
+        synchronized (pendingChanges) {
+            DecompilerMetrics.getInstance().recordFileSystemLockWait(System.nanoTime() - start);
+            isScheduled = !pendingChanges.isEmpty();
+            Map<String, Long> pending = pendingChanges.computeIfAbsent(root, r -> new HashMap<>());
+            // The earliest previous stamp is the one the IDE knows.
+            stamps.forEach(pending::putIfAbsent);
         }
-        SwfHandler handler = getHandler(swfFile);
-        String[] names = relativePath.split("/");
-        DecompiledSwfFile file = getDecompiledFile(handler, swfFile);
-        for (String name : names) {
-            file = getDecompiledFile(handler, name, file);
+        if (!isScheduled) {
+            Application application = ApplicationManager.getApplication();
+            application.invokeLater(() -> application.runWriteAction(this::firePendingChanges));
         }
-        return file;
     }
 
-    @NotNull
-    private DecompiledSwfFile getDecompiledFile(@NotNull SwfHandler handler, @NotNull VirtualFile parent) {
-        synchronized (files) {
-            String path = parent.getPath();
-            if (files.containsKey(path)) {
-                return files.get(path);
+    private void firePendingChanges() {
+        Map<DecompiledSwfFile, Map<String, Long>> changes;
+        long start = System.nanoTime();
+        synchronized (pendingChanges) {
+            DecompilerMetrics.getInstance().recordFileSystemLockWait(System.nanoTime() - start);
+            changes = new HashMap<>(pendingChanges);
+            pendingChanges.clear();
+        }
+        List<VFileEvent> events = new ArrayList<>();
+        for (Map.Entry<DecompiledSwfFile, Map<String, Long>> rootChanges : changes.entrySet()) {
+            for (Map.Entry<String, Long> entry : rootChanges.getValue().entrySet()) {
+                DecompiledSwfFile file = rootChanges.getKey().findCachedFile(entry.getKey());
+                // The files which have never been created are not known to the IDE.
+                if (file != null) {
+                    events.add(new VFileContentChangeEvent(this, file, entry.getValue(), file.getModificationStamp(), true));
+                }
             }
-            DecompiledSwfFile file = new DecompiledSwfFile(handler, parent);
-            files.put(path, file);
-            return file;
+        }
+        if (!events.isEmpty()) {
+            BulkFileListener publisher = ApplicationManager.getApplication().getMessageBus()
+                    .syncPublisher(VirtualFileManager.VFS_CHANGES);
+            publisher.before(events);
+            publisher.after(events);
         }
     }
 
-    @NotNull
-    protected DecompiledSwfFile getDecompiledFile(@NotNull SwfHandler handler, @NotNull String name,
-                                                  @NotNull DecompiledSwfFile parent) {
-        String path = parent.getPath() + '/' + name;
-        synchronized (files) {
-            if (files.containsKey(path)) {
-                return files.get(path);
+    /**
+     * Fires the file events of the files which the IDE has got while the swf file was loading on the event dispatch
+     * thread, i.e. the loading placeholder and the files looked up by their paths.
+     *
+     * @param path The path of the swf file.
+     */
+    private void fireLoadedLater(@NotNull String path) {
+        Application application = ApplicationManager.getApplication();
+        // There is no application when the file system is used outside of the IDE, e.g. by the benchmarks.
+        if (application == null) {
+            return;
+        }
+        application.invokeLater(() -> application.runWriteAction(() -> {
+            // The root may have been recreated with the same handler since.
+            DecompiledSwfFile root = findRoot(path, path.length());
+            if (root != null) {
+                fireLoaded(root);
             }
-            DecompiledSwfFile file = new DecompiledSwfFile(handler, name, parent);
-            files.put(path, file);
-            return file;
+        }));
+    }
+
+    /**
+     * The placeholder and the looked up files which have turned out to be missing or of the other kind are deleted,
+     * the children of the root and of the looked up packages are created and the looked up classes are reloaded
+     * from the loading comment with the modification stamp 0.
+     */
+    private void fireLoaded(@NotNull DecompiledSwfFile root) {
+        DecompiledSwfFile loadingFile = root.takeLoadingFile();
+        List<DecompiledSwfFile> files = root.takeLoadedFiles();
+        if (loadingFile == null && files.isEmpty()) {
+            return;
+        }
+        List<VFileEvent> events = new ArrayList<>();
+        List<DecompiledSwfFile> directories = new ArrayList<>();
+        Set<VirtualFile> known = new HashSet<>(files);
+        if (loadingFile != null) {
+            events.add(new VFileDeleteEvent(this, loadingFile, true));
+            directories.add(root);
         }
+        for (DecompiledSwfFile file : files) {
+            if (!file.isValid()) {
+                events.add(new VFileDeleteEvent(this, file, true));
+                known.remove(file);
+            } else if (file.isDirectory()) {
+                directories.add(file);
+            }
+        }
+        for (DecompiledSwfFile directory : directories) {
+            for (VirtualFile child : directory.getChildren()) {
+                if (!known.contains(child)) {
+                    events.add(new VFileCreateEvent(this, directory, child.getName(), child.isDirectory(), true));
+                }
+            }
+        }
+        for (DecompiledSwfFile file : files) {
+            if (file.isValid() && !file.isDirectory()) {
+                events.add(new VFileContentChangeEvent(this, file, 0L, file.getModificationStamp(), true));
+            }
+        }
+        BulkFileListener publisher = ApplicationManager.getApplication().getMessageBus()
+                .syncPublisher(VirtualFileManager.VFS_CHANGES);
+        publisher.before(events);
+        publisher.after(events);
     }
 
     private void setFileListener() {
-        if (!isFileListenerSet) {
+        // There is no application when the file system is used outside of the IDE, e.g. by the benchmarks.
+        if (ApplicationManager.getApplication() == null) {
+            return;
+        }
+        if (!isFileListenerSet.get() && isFileListenerSet.compareAndSet(false, true)) {
             VirtualFileManager.getInstance().addVirtualFileListener(new VirtualFileListener() {
                 @Override
                 public void propertyChanged(@NotNull VirtualFilePropertyEvent virtualFilePropertyEvent) {
@@ -295,7 +503,7 @@ public class DecompiledSwfFileSystem extends NewVirtualFileSystem {
 
                 @Override
                 public void contentsChanged(@NotNull VirtualFileEvent virtualFileEvent) {
-                    refresh(virtualFileEvent.getFile());
+                    reload(virtualFileEvent.getFile());
                 }
 
                 @Override
@@ -332,7 +540,54 @@ public class DecompiledSwfFileSystem extends NewVirtualFileSystem {
                 public void beforeFileMovement(@NotNull VirtualFileMoveEvent virtualFileMoveEvent) {
                 }
             });
-            isFileListenerSet = true;
+        }
+    }
+
+    /**
+     * The path of the swf file as the key of its root. The key of a lookup may be the prefix of a longer path,
+     * so the root of a decompiled file is found without copying the path of the swf file.
+     */
+    private static final class RootKey {
+
+        private String path;
+        private int length;
+        private int hash;
+
+        private RootKey() {
+            set("", 0);
+        }
+
+        private RootKey(@NotNull String path) {
+            set(path, path.length());
+        }
+
+        @NotNull
+        private RootKey set(@NotNull String path, int length) {
+            int h = 0;
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + path.charAt(i);
+            }
+            this.path = path;
+            this.length = length;
+            this.hash = h;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RootKey)) {
+                return false;
+            }
+            RootKey key = (RootKey) o;
+            return length == key.length && hash == key.hash && path.regionMatches(0, key.path, 0, length);
         }
     }
 }
@@ -1,70 +1,87 @@
 package com.epolyakov.ffdec4idea.vfs;
 
+import com.intellij.openapi.util.io.BufferExposingByteArrayInputStream;
 import com.jpexs.decompiler.flash.helpers.CodeFormatting;
-import com.jpexs.decompiler.flash.helpers.FileTextWriter;
 import com.jpexs.decompiler.flash.helpers.GraphTextWriter;
 import com.jpexs.decompiler.flash.helpers.hilight.HighlightData;
 import com.jpexs.decompiler.flash.helpers.hilight.HighlightSpecialType;
-import com.jpexs.helpers.utf8.Utf8OutputStreamWriter;
+import org.jetbrains.annotations.NotNull;
 
-import java.io.*;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
- * The copy of com.jpexs.decompiler.flash.helpers.FileTextWriter that supports any output streams.
+ * The text writer for the decompiled code that encodes the text to UTF-8 straight into a growable byte buffer.
+ * The indents and the new line characters are encoded once and copied as byte arrays.
  *
  * @author epolyakov
  */
 public class DecompiledSwfTextWriter extends GraphTextWriter implements AutoCloseable {
 
-    private final Writer writer;
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private final byte[] newLineBytes;
+    private final byte[] indentBytes;
+    private byte[][] indents = new byte[8][];
+
+    private byte[] buffer;
+    private int count;
 
     private boolean newLine = true;
 
     private int indent;
 
-    private int writtenBytes;
+    public DecompiledSwfTextWriter(@NotNull CodeFormatting formatting) {
+        this(formatting, DEFAULT_CAPACITY);
+    }
 
-    public DecompiledSwfTextWriter(CodeFormatting formatting, OutputStream outputStream) {
+    /**
+     * @param formatting      The code formatting settings.
+     * @param initialCapacity The expected length of the text in bytes, e.g. the length of the previously decompiled text.
+     */
+    public DecompiledSwfTextWriter(@NotNull CodeFormatting formatting, int initialCapacity) {
         super(formatting);
-        this.writer = new BufferedWriter(new Utf8OutputStreamWriter(outputStream));
+        this.buffer = new byte[Math.max(initialCapacity, 16)];
+        this.newLineBytes = formatting.newLineChars.getBytes(StandardCharsets.UTF_8);
+        this.indentBytes = formatting.indentString.getBytes(StandardCharsets.UTF_8);
     }
 
     @Override
     public GraphTextWriter hilightSpecial(String text, HighlightSpecialType type, String specialValue,
                                           HighlightData data) {
-        writeToFile(text);
+        write(text);
         return this;
     }
 
     @Override
     public GraphTextWriter append(String str) {
-        writeToFile(str);
+        write(str);
         return this;
     }
 
     @Override
     public GraphTextWriter appendWithData(String str, HighlightData data) {
-        writeToFile(str);
+        write(str);
         return this;
     }
 
     @Override
     public GraphTextWriter append(String str, long offset) {
-        writeToFile(str);
+        write(str);
         return this;
     }
 
     @Override
     public GraphTextWriter appendNoHilight(int i) {
-        writeToFile(Integer.toString(i));
+        write(Integer.toString(i));
         return this;
     }
 
     @Override
     public GraphTextWriter appendNoHilight(String str) {
-        writeToFile(str);
+        write(str);
         return this;
     }
 
@@ -80,16 +97,26 @@ public class DecompiledSwfTextWriter extends GraphTextWriter implements AutoClos
         return this;
     }
 
+    /**
+     * Writes the new line. The decompilation of a long class is stopped here if the thread is interrupted.
+     */
     @Override
     public GraphTextWriter newLine() {
-        writeToFile(formatting.newLineChars);
+        if (Thread.currentThread().isInterrupted()) {
+            throw new UncheckedIOException(new InterruptedIOException());
+        }
+        startLine();
+        writeBytes(newLineBytes);
         newLine = true;
         return this;
     }
 
+    /**
+     * @return The number of bytes written so far.
+     */
     @Override
     public int getLength() {
-        return writtenBytes;
+        return count;
     }
 
     @Override
@@ -97,31 +124,110 @@ public class DecompiledSwfTextWriter extends GraphTextWriter implements AutoClos
         return indent;
     }
 
-    private void writeToFile(String str) {
+    /**
+     * @return The written bytes, the internal buffer is returned without copying if it is filled exactly.
+     */
+    @NotNull
+    public byte[] toByteArray() {
+        return count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * @return The stream over the internal buffer, the buffer is not copied.
+     */
+    @NotNull
+    public BufferExposingByteArrayInputStream toInputStream() {
+        return new BufferExposingByteArrayInputStream(buffer, 0, count);
+    }
+
+    private void write(String str) {
+        startLine();
+        int length = str.length();
+        ensureCapacity(length);
+        byte[] b = buffer;
+        int n = count;
+        int i = 0;
+
+        // The decompiled code is mostly ASCII.
+        for (; i < length; i++) {
+            char c = str.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            b[n++] = (byte) c;
+        }
+        count = n;
+        if (i < length) {
+            writeNonAscii(str, i);
+        }
+    }
+
+    private void writeNonAscii(String str, int start) {
+        int length = str.length();
+        ensureCapacity((length - start) * 3);
+        byte[] b = buffer;
+        int n = count;
+        for (int i = start; i < length; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                b[n++] = (byte) c;
+            } else if (c < 0x800) {
+                b[n++] = (byte) (0xc0 | (c >> 6));
+                b[n++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                b[n++] = (byte) (0xf0 | (codePoint >> 18));
+                b[n++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                b[n++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                b[n++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                b[n++] = '?';
+            } else {
+                b[n++] = (byte) (0xe0 | (c >> 12));
+                b[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[n++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        count = n;
+    }
+
+    private void startLine() {
         if (newLine) {
             newLine = false;
-            appendIndent();
-        }
-        try {
-            writer.write(str);
-            writtenBytes += str.length();
-        } catch (IOException ex) {
-            Logger.getLogger(FileTextWriter.class.getName()).log(Level.SEVERE, null, ex);
+            if (indent > 0) {
+                writeBytes(getIndentBytes(indent));
+            }
         }
     }
 
-    private void appendIndent() {
-        for (int i = 0; i < indent; i++) {
-            writeToFile(formatting.indentString);
+    private byte[] getIndentBytes(int level) {
+        if (level >= indents.length) {
+            indents = Arrays.copyOf(indents, Math.max(level + 1, indents.length * 2));
         }
+        byte[] bytes = indents[level];
+        if (bytes == null) {
+            bytes = new byte[indentBytes.length * level];
+            for (int i = 0; i < level; i++) {
+                System.arraycopy(indentBytes, 0, bytes, i * indentBytes.length, indentBytes.length);
+            }
+            indents[level] = bytes;
+        }
+        return bytes;
     }
 
-    @Override
-    public void close() throws IOException {
-        writer.close();
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
     }
 
-    public void flush() throws IOException {
-        writer.flush();
+    private void ensureCapacity(int length) {
+        if (count + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+        }
+    }
+
+    @Override
+    public void close() {
     }
 }
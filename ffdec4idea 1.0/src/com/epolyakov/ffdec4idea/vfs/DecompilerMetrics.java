@@ -0,0 +1,371 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters of the swf parsing, the decompilation, the file system and the source caches. The counters are
+ * striped adders and the latencies are counted in fixed buckets, so the metrics are always collected.
+ * The sizes of the handlers, the files and the caches are computed when they are requested.
+ *
+ * @author epolyakov
+ */
+public final class DecompilerMetrics implements DecompilerMetricsMXBean {
+
+    public static final String OBJECT_NAME = "com.epolyakov.ffdec4idea:type=DecompilerMetrics";
+
+    private static final long[] latencyBoundsMillis = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+    private static final DecompilerMetrics instance = new DecompilerMetrics();
+
+    private final LongAdder parseCount = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder parsedScriptPacks = new LongAdder();
+
+    private final LongAdder decompileCount = new LongAdder();
+    private final LongAdder decompileNanos = new LongAdder();
+    private final LongAdder decompiledBytes = new LongAdder();
+    private final LongAdder[] decompileLatencies = new LongAdder[latencyBoundsMillis.length + 1];
+    private final LongAdder fallbackCount = new LongAdder();
+    private final LongAdder stubCount = new LongAdder();
+
+    private final LongAdder lookupCount = new LongAdder();
+    private final LongAdder fileSystemLockWaitNanos = new LongAdder();
+
+    private final LongAdder sourceCacheHits = new LongAdder();
+    private final LongAdder sourceCacheMisses = new LongAdder();
+    private final LongAdder sourceCacheEvictions = new LongAdder();
+    private final LongAdder sourceCacheLockWaitNanos = new LongAdder();
+    private final LongAdder persistentCacheHits = new LongAdder();
+    private final LongAdder persistentCacheMisses = new LongAdder();
+    private final LongAdder persistentCacheEvictions = new LongAdder();
+
+    // The file system whose handlers and files are counted, it is the one which has mounted a swf file last.
+    private volatile DecompiledSwfFileSystem fileSystem;
+
+    private DecompilerMetrics() {
+        for (int i = 0; i < decompileLatencies.length; i++) {
+            decompileLatencies[i] = new LongAdder();
+        }
+        register();
+    }
+
+    @NotNull
+    public static DecompilerMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, so they can be watched with JConsole or VisualVM.
+     */
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException | SecurityException e) {
+            e.printStackTrace();
+        }
+    }
+
+    void setFileSystem(@NotNull DecompiledSwfFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    void recordParse(long nanos) {
+        parseCount.increment();
+        parseNanos.add(nanos);
+    }
+
+    void recordScriptPacks(int count) {
+        parsedScriptPacks.add(count);
+    }
+
+    void recordDecompile(long nanos, long bytes) {
+        decompileCount.increment();
+        decompileNanos.add(nanos);
+        decompiledBytes.add(bytes);
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < latencyBoundsMillis.length && millis >= latencyBoundsMillis[bucket]) {
+            bucket++;
+        }
+        decompileLatencies[bucket].increment();
+    }
+
+    void recordFallback() {
+        fallbackCount.increment();
+    }
+
+    void recordStub() {
+        stubCount.increment();
+    }
+
+    void recordLookup() {
+        lookupCount.increment();
+    }
+
+    void recordFileSystemLockWait(long nanos) {
+        fileSystemLockWaitNanos.add(nanos);
+    }
+
+    void recordSourceCacheAccess(boolean hit, long lockWaitNanos) {
+        (hit ? sourceCacheHits : sourceCacheMisses).increment();
+        sourceCacheLockWaitNanos.add(lockWaitNanos);
+    }
+
+    void recordSourceCacheEviction() {
+        sourceCacheEvictions.increment();
+    }
+
+    void recordPersistentCacheAccess(boolean hit) {
+        (hit ? persistentCacheHits : persistentCacheMisses).increment();
+    }
+
+    void recordPersistentCacheEvictions(int count) {
+        persistentCacheEvictions.add(count);
+    }
+
+    @Override
+    public long getParseCount() {
+        return parseCount.sum();
+    }
+
+    @Override
+    public long getParseTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(parseNanos.sum());
+    }
+
+    @Override
+    public long getParsedScriptPackCount() {
+        return parsedScriptPacks.sum();
+    }
+
+    @Override
+    public long getDecompileCount() {
+        return decompileCount.sum();
+    }
+
+    @Override
+    public long getDecompileTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(decompileNanos.sum());
+    }
+
+    @Override
+    public long getDecompiledBytes() {
+        return decompiledBytes.sum();
+    }
+
+    @Override
+    public long[] getDecompileLatencyBoundsMillis() {
+        return latencyBoundsMillis.clone();
+    }
+
+    @Override
+    public long[] getDecompileLatencyHistogram() {
+        long[] histogram = new long[decompileLatencies.length];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = decompileLatencies[i].sum();
+        }
+        return histogram;
+    }
+
+    @Override
+    public long getTimeLimitFallbackCount() {
+        return fallbackCount.sum();
+    }
+
+    @Override
+    public long getStubCount() {
+        return stubCount.sum();
+    }
+
+    @Override
+    public long getLookupCount() {
+        return lookupCount.sum();
+    }
+
+    @Override
+    public long getFileSystemLockWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(fileSystemLockWaitNanos.sum());
+    }
+
+    @Override
+    public int getHandlerCount() {
+        return getRoots().size();
+    }
+
+    @Override
+    public int getLoadedHandlerCount() {
+        return (int) getRoots().stream().filter(root -> root.getHandler().isLoaded()).count();
+    }
+
+    @Override
+    public long getLoadedScriptPackCount() {
+        return getRoots().stream().mapToLong(root -> root.getHandler().getLoadedScriptPackCount()).sum();
+    }
+
+    @Override
+    public long getFileCount() {
+        return getRoots().stream().mapToLong(DecompiledSwfFile::getCachedFileCount).sum();
+    }
+
+    @Override
+    public long getSourceCacheHitCount() {
+        return sourceCacheHits.sum();
+    }
+
+    @Override
+    public long getSourceCacheMissCount() {
+        return sourceCacheMisses.sum();
+    }
+
+    @Override
+    public double getSourceCacheHitRatio() {
+        return getRatio(getSourceCacheHitCount(), getSourceCacheMissCount());
+    }
+
+    @Override
+    public long getSourceCacheEvictionCount() {
+        return sourceCacheEvictions.sum();
+    }
+
+    @Override
+    public long getSourceCacheBytes() {
+        return DecompiledSourceCache.getInstance().getBytes();
+    }
+
+    @Override
+    public long getSourceCacheLockWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(sourceCacheLockWaitNanos.sum());
+    }
+
+    @Override
+    public long getPersistentCacheHitCount() {
+        return persistentCacheHits.sum();
+    }
+
+    @Override
+    public long getPersistentCacheMissCount() {
+        return persistentCacheMisses.sum();
+    }
+
+    @Override
+    public double getPersistentCacheHitRatio() {
+        return getRatio(getPersistentCacheHitCount(), getPersistentCacheMissCount());
+    }
+
+    @Override
+    public long getPersistentCacheEvictionCount() {
+        return persistentCacheEvictions.sum();
+    }
+
+    @Override
+    public long getPersistentCacheBytes() {
+        PersistentSourceCache persistentCache = PersistentSourceCache.getCreatedInstance();
+        return persistentCache != null ? persistentCache.getSize() : 0L;
+    }
+
+    @Override
+    public int getPersistentCacheRecordCount() {
+        PersistentSourceCache persistentCache = PersistentSourceCache.getCreatedInstance();
+        return persistentCache != null ? persistentCache.getRecordCount() : 0;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Swf files\n");
+        append(sb, "Handlers", getHandlerCount() + " (" + getLoadedHandlerCount() + " loaded)");
+        append(sb, "Parsed swf files", getParseCount() + " in " + getParseTimeMillis() + " ms");
+        append(sb, "Parsed script packs", getParsedScriptPackCount());
+        append(sb, "Loaded script packs", getLoadedScriptPackCount());
+
+        sb.append("\nDecompilation\n");
+        append(sb, "Decompiled classes", getDecompileCount() + " in " + getDecompileTimeMillis() + " ms");
+        append(sb, "Decompiled bytes", getDecompiledBytes());
+        append(sb, "Time limit fallbacks", getTimeLimitFallbackCount());
+        append(sb, "Stubs", getStubCount());
+        long[] histogram = getDecompileLatencyHistogram();
+        append(sb, "Latency p50", getPercentile(histogram, 0.5));
+        append(sb, "Latency p90", getPercentile(histogram, 0.9));
+        append(sb, "Latency p99", getPercentile(histogram, 0.99));
+        for (int i = 0; i < histogram.length; i++) {
+            String bucket = i < latencyBoundsMillis.length ? "< " + latencyBoundsMillis[i] + " ms"
+                    : ">= " + latencyBoundsMillis[latencyBoundsMillis.length - 1] + " ms";
+            append(sb, "Latency " + bucket, histogram[i]);
+        }
+
+        sb.append("\nFile system\n");
+        append(sb, "Lookups", getLookupCount());
+        append(sb, "Lock wait", getFileSystemLockWaitMillis() + " ms");
+        append(sb, "Files", getFileCount());
+
+        sb.append("\nSource cache\n");
+        append(sb, "Hits", getSourceCacheHitCount() + " (" + formatRatio(getSourceCacheHitRatio()) + ")");
+        append(sb, "Misses", getSourceCacheMissCount());
+        append(sb, "Evictions", getSourceCacheEvictionCount());
+        append(sb, "Bytes", getSourceCacheBytes());
+        append(sb, "Lock wait", getSourceCacheLockWaitMillis() + " ms");
+
+        sb.append("\nPersistent cache\n");
+        append(sb, "Hits", getPersistentCacheHitCount() + " (" + formatRatio(getPersistentCacheHitRatio()) + ")");
+        append(sb, "Misses", getPersistentCacheMissCount());
+        append(sb, "Evictions", getPersistentCacheEvictionCount());
+        append(sb, "Bytes", getPersistentCacheBytes());
+        append(sb, "Records", getPersistentCacheRecordCount());
+        return sb.toString();
+    }
+
+    @NotNull
+    private Collection<DecompiledSwfFile> getRoots() {
+        DecompiledSwfFileSystem fs = fileSystem;
+        return fs != null ? fs.getRoots() : Collections.emptyList();
+    }
+
+    /**
+     * @return The upper bound of the latency bucket that contains the percentile.
+     */
+    @NotNull
+    private static String getPercentile(@NotNull long[] histogram, double percentile) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return "-";
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long count = 0;
+        for (int i = 0; i < latencyBoundsMillis.length; i++) {
+            count += histogram[i];
+            if (count >= rank) {
+                return "< " + latencyBoundsMillis[i] + " ms";
+            }
+        }
+        return ">= " + latencyBoundsMillis[latencyBoundsMillis.length - 1] + " ms";
+    }
+
+    private static double getRatio(long hits, long misses) {
+        return hits + misses > 0 ? (double) hits / (hits + misses) : 0.0;
+    }
+
+    @NotNull
+    private static String formatRatio(double ratio) {
+        return Math.round(ratio * 1000) / 10.0 + "%";
+    }
+
+    private static void append(@NotNull StringBuilder sb, @NotNull String name, @Nullable Object value) {
+        sb.append("  ").append(name).append(": ").append(value).append('\n');
+    }
+}
@@ -0,0 +1,77 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+/**
+ * The management interface of the decompiler metrics, it is registered in the platform MBean server
+ * as {@link DecompilerMetrics#OBJECT_NAME}. The times are in milliseconds, the sizes are in bytes.
+ *
+ * @author epolyakov
+ */
+public interface DecompilerMetricsMXBean {
+
+    long getParseCount();
+
+    long getParseTimeMillis();
+
+    long getParsedScriptPackCount();
+
+    long getDecompileCount();
+
+    long getDecompileTimeMillis();
+
+    long getDecompiledBytes();
+
+    /**
+     * @return The upper bounds of the decompile latency buckets, the last bucket has no bound.
+     */
+    long[] getDecompileLatencyBoundsMillis();
+
+    /**
+     * @return The number of the decompiled classes in each latency bucket.
+     */
+    long[] getDecompileLatencyHistogram();
+
+    long getTimeLimitFallbackCount();
+
+    long getStubCount();
+
+    long getLookupCount();
+
+    long getFileSystemLockWaitMillis();
+
+    int getHandlerCount();
+
+    int getLoadedHandlerCount();
+
+    long getLoadedScriptPackCount();
+
+    long getFileCount();
+
+    long getSourceCacheHitCount();
+
+    long getSourceCacheMissCount();
+
+    double getSourceCacheHitRatio();
+
+    long getSourceCacheEvictionCount();
+
+    long getSourceCacheBytes();
+
+    long getSourceCacheLockWaitMillis();
+
+    long getPersistentCacheHitCount();
+
+    long getPersistentCacheMissCount();
+
+    double getPersistentCacheHitRatio();
+
+    long getPersistentCacheEvictionCount();
+
+    long getPersistentCacheBytes();
+
+    int getPersistentCacheRecordCount();
+
+    /**
+     * @return All the metrics as a text.
+     */
+    String dump();
+}
@@ -0,0 +1,120 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.jpexs.decompiler.flash.ApplicationInfo;
+
+import java.security.CodeSource;
+
+/**
+ * The tuning options of the decompiler. Each option can be overridden with a system property,
+ * e.g. -Dffdec4idea.sourceCache.maxBytes=67108864 in the idea.vmoptions file.
+ *
+ * @author epolyakov
+ */
+public final class DecompilerOptions {
+
+    private static final String PREFIX = "ffdec4idea.";
+
+    private DecompilerOptions() {
+    }
+
+    /**
+     * @return The maximum total size of the decompiled sources kept in memory, the budget is shared by all the swf files.
+     */
+    public static long getSourceCacheMaxBytes() {
+        return getLong("sourceCache.maxBytes", 64L * 1024 * 1024);
+    }
+
+    /**
+     * @return True if the decompiled sources are also stored in the system directory of the IDE.
+     */
+    public static boolean isPersistentCacheEnabled() {
+        return getBoolean("persistentCache.enabled", true);
+    }
+
+    /**
+     * @return The size cap of the persistent cache file, it is compacted to a half of this size when exceeded.
+     */
+    public static long getPersistentCacheMaxBytes() {
+        return Math.min(getLong("persistentCache.maxBytes", 256L * 1024 * 1024), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return True if all the classes of a swf file are decompiled in background after the first one is opened.
+     */
+    public static boolean isPreDecompileEnabled() {
+        return getBoolean("preDecompile.enabled", false);
+    }
+
+    /**
+     * @return True if only the code tags of the swf files are read, the bodies of the other tags are skipped
+     * without parsing and the ABC blocks are parsed when the classes are listed first time.
+     */
+    public static boolean isCodeOnlyLoadEnabled() {
+        return getBoolean("codeOnlyLoad.enabled", true);
+    }
+
+    /**
+     * @return The estimated heap size of all the parsed swf files, the least recently used ones without open editors
+     * are unloaded when it is exceeded. The default is a quarter of the maximum heap size.
+     */
+    public static long getHandlersMaxBytes() {
+        return getLong("handlers.maxBytes", Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * @return The time limit of the decompilation of a class in milliseconds, the p-code of the class is shown when
+     * it is exceeded. There is no limit if it is 0.
+     */
+    public static long getScriptTimeLimitMillis() {
+        return getLong("scriptTimeLimit.millis", 15000L);
+    }
+
+    /**
+     * @return True if the stub of a class is shown instead of its p-code when the time limit is exceeded.
+     */
+    public static boolean isScriptTimeLimitStubFallback() {
+        return getBoolean("scriptTimeLimit.stubFallback", false);
+    }
+
+    /**
+     * @return True if the classes are served as stubs with the declarations only until they are opened in the editor,
+     * so indexing does not decompile the method bodies. It is off by default, because the stub is the content
+     * of the class for every reader, so the search in the swf files would not find the text of the method bodies.
+     */
+    public static boolean isStubModeEnabled() {
+        return getBoolean("stubs.enabled", false);
+    }
+
+    /**
+     * @return The number of threads that decompile classes and parse the ABC blocks of swf files in parallel.
+     */
+    public static int getParallelism() {
+        return (int) Math.max(1, getLong("parallelism", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @return True if the DoABC tags of a swf file are parsed in parallel when its classes are listed first.
+     */
+    public static boolean isParallelAbcParseEnabled() {
+        return getBoolean("parallelAbcParse.enabled", true);
+    }
+
+    /**
+     * @return The version of the bundled ffdec library like "ffdec_4.1.1_lib.jar:354fd11",
+     * the decompiled sources depend on it.
+     */
+    public static String getDecompilerVersion() {
+        CodeSource codeSource = ApplicationInfo.class.getProtectionDomain().getCodeSource();
+        String location = codeSource != null && codeSource.getLocation() != null ? codeSource.getLocation().getPath() : "";
+        return location.substring(location.lastIndexOf('/') + 1) + ":" + ApplicationInfo.revision;
+    }
+
+    private static boolean getBoolean(String name, boolean defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    private static long getLong(String name, long defaultValue) {
+        return Long.getLong(PREFIX + name, defaultValue);
+    }
+}
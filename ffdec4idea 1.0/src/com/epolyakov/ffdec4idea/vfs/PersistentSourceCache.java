@@ -0,0 +1,389 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.intellij.openapi.application.PathManager;
+import com.jpexs.decompiler.flash.configuration.Configuration;
+import com.jpexs.decompiler.flash.configuration.ConfigurationItem;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The on-disk cache of the decompiled sources that survives the IDE restarts.
+ * <p>
+ * The sources are appended to a single data file as records of the 20 bytes key, the length and the bytes.
+ * The index of the records is rebuilt by scanning the file on start, the records are read through a memory
+ * mapping of the file. When the file grows over the size cap, the most recently used records are copied
+ * to a new generation of the file and the old one is deleted.
+ *
+ * @author epolyakov
+ */
+final class PersistentSourceCache {
+
+    private static final int MAGIC = 0x46464443;
+    private static final int KEY_LENGTH = 20;
+    private static final int HEADER_LENGTH = 4 + KEY_LENGTH + 4;
+    private static final String FILE_PREFIX = "sources.";
+    private static final String FILE_SUFFIX = ".dat";
+
+    // The version of the decompiled sources written by the plugin, it is raised when the plugin changes how the classes
+    // are written, so the sources stored by the previous versions are not found.
+    private static final int FORMAT_VERSION = 1;
+    // The ffdec options besides the code formatting which change the decompiled sources.
+    private static final ConfigurationItem<?>[] decompilerOptions = {
+            Configuration.decompile,
+            Configuration.autoDeobfuscate,
+            Configuration.deobfuscationMode,
+            Configuration.resolveConstants,
+            Configuration.sublimiter,
+            Configuration.decompilationTimeoutSingleMethod,
+            Configuration.paramNamesEnable,
+            Configuration.getLocalNamesFromDebugInfo,
+            Configuration.registerNameFormat,
+            Configuration.showMethodBodyId,
+            Configuration.decimalAddress,
+            Configuration.showAllAddresses
+    };
+
+    private static final byte[] decompilerVersion = DecompilerOptions.getDecompilerVersion().getBytes(StandardCharsets.UTF_8);
+
+    private static volatile PersistentSourceCache instance;
+    private static volatile File customDirectory;
+
+    private final File directory;
+    private final long maxBytes;
+    private final Map<Key, Record> records = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int generation;
+    private FileChannel channel;
+    private MappedByteBuffer mapping;
+    private long size;
+
+    PersistentSourceCache(@NotNull File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        open();
+    }
+
+    /**
+     * @return The cache in the system directory of the IDE or in the directory set by {@link #setDirectory(File)},
+     * null if it is disabled or cannot be opened.
+     */
+    @Nullable
+    static PersistentSourceCache getInstance() {
+        if (instance == null && DecompilerOptions.isPersistentCacheEnabled()) {
+            synchronized (PersistentSourceCache.class) {
+                if (instance == null) {
+                    try {
+                        File directory = customDirectory != null
+                                ? customDirectory : new File(PathManager.getSystemPath(), "ffdec4idea");
+                        instance = new PersistentSourceCache(directory, DecompilerOptions.getPersistentCacheMaxBytes());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return null;
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Sets the directory of the cache instead of the system directory of the IDE, it is used when the cache is opened.
+     *
+     * @param directory The directory of the cache files.
+     */
+    static void setDirectory(@NotNull File directory) {
+        customDirectory = directory;
+    }
+
+    /**
+     * @return The cache if it has been opened before or null, it is not opened here.
+     */
+    @Nullable
+    static PersistentSourceCache getCreatedInstance() {
+        return instance;
+    }
+
+    /**
+     * Gets the key of the decompiled source. Besides the arguments it includes the versions of the plugin format
+     * and of ffdec and the ffdec options which change the decompiled sources.
+     *
+     * @param swfHash       The hash of the swf file bytes.
+     * @param scriptHash    The hash of the script bytecode.
+     * @param qName         The qualified name of the class.
+     * @param formattingKey The code formatting settings.
+     * @return The 20 bytes key.
+     */
+    @NotNull
+    static byte[] getKey(@NotNull byte[] swfHash, @NotNull byte[] scriptHash, @NotNull String qName,
+                         @NotNull String formattingKey) {
+        MessageDigest digest = ScriptDigest.newSha1();
+        digest.update(swfHash);
+        digest.update(scriptHash);
+        digest.update(qName.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update((byte) FORMAT_VERSION);
+        digest.update(decompilerVersion);
+        digest.update((byte) 0);
+        digest.update(formattingKey.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(getDecompilerOptionsKey().getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    /**
+     * @return The string of the current values of the ffdec options which change the decompiled sources.
+     */
+    @NotNull
+    private static String getDecompilerOptionsKey() {
+        StringBuilder sb = new StringBuilder();
+        for (ConfigurationItem<?> option : decompilerOptions) {
+            sb.append(option.get()).append(';');
+        }
+        return sb.toString();
+    }
+
+    @Nullable
+    synchronized byte[] get(@NotNull byte[] key) {
+        Record record = records.get(new Key(key));
+        DecompilerMetrics.getInstance().recordPersistentCacheAccess(record != null);
+        if (record == null) {
+            return null;
+        }
+        try {
+            if (mapping == null || mapping.capacity() < record.offset + record.length) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            byte[] bytes = new byte[record.length];
+            ByteBuffer buffer = mapping.duplicate();
+            buffer.position((int) record.offset);
+            buffer.get(bytes);
+            return bytes;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @return The length of the source in bytes or -1 if there is no such record. The source is not read.
+     */
+    synchronized long getLength(@NotNull byte[] key) {
+        Record record = records.get(new Key(key));
+        return record != null ? record.length : -1L;
+    }
+
+    synchronized void put(@NotNull byte[] key, @NotNull byte[] source) {
+        Key k = new Key(key);
+        if (records.containsKey(k) || HEADER_LENGTH + source.length > maxBytes / 2) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + source.length);
+            buffer.putInt(MAGIC).put(key).putInt(source.length).put(source).flip();
+            long position = size;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            records.put(k, new Record(size + HEADER_LENGTH, source.length));
+            size = position;
+            if (size > maxBytes) {
+                compact();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized int getRecordCount() {
+        return records.size();
+    }
+
+    /**
+     * Copies the most recently used records that fit into a half of the size cap to the next generation
+     * of the data file and deletes the current one.
+     */
+    synchronized void compact() throws IOException {
+        List<Map.Entry<Key, Record>> entries = new ArrayList<>(records.entrySet());
+        long budget = maxBytes / 2;
+        int first = entries.size();
+        while (first > 0 && budget >= HEADER_LENGTH + entries.get(first - 1).getValue().length) {
+            first--;
+            budget -= HEADER_LENGTH + entries.get(first).getValue().length;
+        }
+
+        DecompilerMetrics.getInstance().recordPersistentCacheEvictions(first);
+        File file = getFile(generation + 1);
+        Map<Key, Record> compacted = new LinkedHashMap<>(16, 0.75f, true);
+        long position = 0;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            FileChannel target = randomAccessFile.getChannel();
+            target.truncate(0);
+            for (Map.Entry<Key, Record> entry : entries.subList(first, entries.size())) {
+                Record record = entry.getValue();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC).put(entry.getKey().bytes).putInt(record.length).flip();
+                position += target.write(header, position);
+                long transferred = 0;
+                while (transferred < record.length) {
+                    transferred += channel.transferTo(record.offset + transferred, record.length - transferred,
+                                                      target.position(position + transferred));
+                }
+                compacted.put(entry.getKey(), new Record(position, record.length));
+                position += record.length;
+            }
+            target.force(false);
+        }
+        close();
+        deleteGenerations(generation + 1);
+        records.clear();
+        records.putAll(compacted);
+        generation++;
+        openChannel();
+    }
+
+    synchronized void close() {
+        mapping = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    private void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        generation = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                generation = Math.max(generation, getGeneration(file));
+            }
+        }
+        deleteGenerations(generation);
+        openChannel();
+        scan();
+    }
+
+    private void openChannel() throws IOException {
+        channel = new RandomAccessFile(getFile(generation), "rw").getChannel();
+        size = channel.size();
+        mapping = null;
+    }
+
+    /**
+     * Rebuilds the index from the data file. A broken record at the end of the file, e.g. after a crash,
+     * is truncated.
+     */
+    private void scan() throws IOException {
+        records.clear();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        long position = 0;
+        while (position + HEADER_LENGTH <= size) {
+            buffer.position((int) position);
+            if (buffer.getInt() != MAGIC) {
+                break;
+            }
+            byte[] key = new byte[KEY_LENGTH];
+            buffer.get(key);
+            int length = buffer.getInt();
+            if (length < 0 || position + HEADER_LENGTH + length > size) {
+                break;
+            }
+            records.put(new Key(key), new Record(position + HEADER_LENGTH, length));
+            position += HEADER_LENGTH + length;
+        }
+        if (position < size) {
+            channel.truncate(position);
+            size = position;
+        }
+        mapping = null;
+    }
+
+    /**
+     * Deletes all the data files except the given generation. The files which are still mapped may fail
+     * to delete on some platforms, they are deleted on the next start.
+     */
+    private void deleteGenerations(int keep) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                int g = getGeneration(file);
+                if (g >= 0 && g != keep) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private File getFile(int generation) {
+        return new File(directory, FILE_PREFIX + generation + FILE_SUFFIX);
+    }
+
+    private static int getGeneration(@NotNull File file) {
+        String name = file.getName();
+        if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)) {
+            try {
+                return Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return -1;
+    }
+
+    private static final class Key {
+
+        private final byte[] bytes;
+        private final int hashCode;
+
+        private Key(@NotNull byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof Key && Arrays.equals(bytes, ((Key) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Record {
+
+        private final long offset;
+        private final int length;
+
+        private Record(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
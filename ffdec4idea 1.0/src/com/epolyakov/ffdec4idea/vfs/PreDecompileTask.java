@@ -0,0 +1,107 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The background task that decompiles all the classes of a swf file in parallel and fills the source caches.
+ * The classes in the same package as the class the user has just opened go first.
+ *
+ * @author epolyakov
+ */
+public class PreDecompileTask extends Task.Backgroundable {
+
+    private static final ResourceBundle resources = ResourceBundle.getBundle("com.epolyakov.ffdec4idea.resources.ffdec4idea");
+
+    private final SwfHandler handler;
+    private final String qName;
+
+    private PreDecompileTask(@Nullable Project project, @NotNull SwfHandler handler, @NotNull String qName) {
+        super(project, MessageFormat.format(resources.getString("predecompile.title"), handler.getName()), true);
+        this.handler = handler;
+        this.qName = qName;
+    }
+
+    /**
+     * Starts the pre-decompilation of the swf file if it is enabled and has not been started for this handler yet.
+     *
+     * @param project The current project or null.
+     * @param handler The handler of the swf file.
+     * @param qName   The qualified name of the class that has just been opened.
+     */
+    public static void startIfNeeded(@Nullable Project project, @NotNull SwfHandler handler, @NotNull String qName) {
+        if (DecompilerOptions.isPreDecompileEnabled() && handler.markPreDecompileStarted()) {
+            ApplicationManager.getApplication().invokeLater(
+                    () -> ProgressManager.getInstance().run(new PreDecompileTask(project, handler, qName)));
+        }
+    }
+
+    @Override
+    public void run(@NotNull ProgressIndicator indicator) {
+        indicator.setIndeterminate(false);
+        List<String> qNames = getOrderedClassNames();
+        int total = qNames.size();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+
+        // Each worker takes the next class from the ordered list, so the priority classes are decompiled first.
+        ForkJoinPool pool = SwfHandler.getParallelPool();
+        List<ForkJoinTask<?>> workers = new ArrayList<>();
+        for (int i = 0; i < pool.getParallelism(); i++) {
+            workers.add(pool.submit(() -> {
+                int index;
+                while (!indicator.isCanceled() && (index = next.getAndIncrement()) < total) {
+                    String name = qNames.get(index);
+                    try {
+                        handler.contentsToByteArray(name);
+                    } catch (IOException | RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                    indicator.setText2(name);
+                    indicator.setFraction((double) done.incrementAndGet() / total);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                indicator.cancel();
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @NotNull
+    private List<String> getOrderedClassNames() {
+        List<String> qNames = handler.getClassNames();
+        int i = qName.lastIndexOf('.');
+        String packageName = i >= 0 ? qName.substring(0, i + 1) : "";
+        List<String> ordered = new ArrayList<>(qNames.size());
+        List<String> others = new ArrayList<>(qNames.size());
+        for (String name : qNames) {
+            boolean samePackage = name.startsWith(packageName) && name.indexOf('.', packageName.length()) < 0;
+            (samePackage ? ordered : others).add(name);
+        }
+        ordered.addAll(others);
+        return ordered;
+    }
+}
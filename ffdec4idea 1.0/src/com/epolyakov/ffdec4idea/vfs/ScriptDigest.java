@@ -0,0 +1,419 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.jpexs.decompiler.flash.abc.ABC;
+import com.jpexs.decompiler.flash.abc.ScriptPack;
+import com.jpexs.decompiler.flash.abc.avm2.AVM2Code;
+import com.jpexs.decompiler.flash.abc.avm2.AVM2ConstantPool;
+import com.jpexs.decompiler.flash.abc.avm2.instructions.AVM2Instruction;
+import com.jpexs.decompiler.flash.abc.types.ABCException;
+import com.jpexs.decompiler.flash.abc.types.ClassInfo;
+import com.jpexs.decompiler.flash.abc.types.InstanceInfo;
+import com.jpexs.decompiler.flash.abc.types.MetadataInfo;
+import com.jpexs.decompiler.flash.abc.types.MethodBody;
+import com.jpexs.decompiler.flash.abc.types.MethodInfo;
+import com.jpexs.decompiler.flash.abc.types.Multiname;
+import com.jpexs.decompiler.flash.abc.types.Namespace;
+import com.jpexs.decompiler.flash.abc.types.NamespaceSet;
+import com.jpexs.decompiler.flash.abc.types.ScriptInfo;
+import com.jpexs.decompiler.flash.abc.types.ValueKind;
+import com.jpexs.decompiler.flash.abc.types.traits.Trait;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitClass;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitFunction;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitMethodGetterSetter;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitSlotConst;
+import com.jpexs.decompiler.flash.abc.types.traits.Traits;
+import com.jpexs.decompiler.flash.tags.ABCContainerTag;
+import com.jpexs.decompiler.flash.tags.Tag;
+import com.jpexs.helpers.ByteArrayRange;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Computes the hash of the bytecode of a script: its traits, classes, methods and their code.
+ * All the constant pool references are resolved to their values, so the hash does not depend on
+ * the layout of the constant pool and identical scripts have identical hashes in any ABC block.
+ * The decompiled source of a script also depends on the definitions which ffdec looks up in all the ABC blocks
+ * of the swf, so the hash of the script includes the hash of this context, see {@link #computeContext(List)}.
+ *
+ * @author epolyakov
+ */
+final class ScriptDigest {
+
+    private final ABC abc;
+    private final AVM2ConstantPool constants;
+    private final MessageDigest digest;
+    private final Set<Integer> visitedMethods = new HashSet<>();
+    private final byte[] buffer = new byte[8];
+
+    private ScriptDigest(@NotNull ABC abc, @NotNull MessageDigest digest) {
+        this.abc = abc;
+        this.constants = abc.constants;
+        this.digest = digest;
+    }
+
+    /**
+     * @param scriptPack  The script pack.
+     * @param contextHash The hash of the context of the swf the pack is read from, see {@link #computeContext(List)}.
+     * @return The SHA-1 hash of the script the pack belongs to.
+     */
+    @NotNull
+    static byte[] compute(@NotNull ScriptPack scriptPack, @NotNull byte[] contextHash) {
+        ScriptDigest scriptDigest = new ScriptDigest(scriptPack.abc, newSha1());
+        scriptDigest.digest.update(contextHash);
+        scriptDigest.update(scriptPack.getClassPath().toString());
+        scriptDigest.update(scriptPack.abc.script_info.get(scriptPack.scriptIndex));
+        return scriptDigest.digest.digest();
+    }
+
+    /**
+     * Computes the hash of the definitions which ffdec 4.1.1 looks up in all the ABC blocks of the swf while it
+     * decompiles any of its scripts: the names of the script traits, which give the imports and the packages of
+     * the namespaces, and the values of the namespace constants, which give the names of the custom namespaces
+     * and the modifiers. The method bodies are not included, so the context does not change when only the code
+     * of the methods changes.
+     *
+     * @param abcTags The ABC tags of the swf in the order of {@link com.jpexs.decompiler.flash.SWF#getAbcList()}.
+     * @return The SHA-1 hash of the context.
+     */
+    @NotNull
+    static byte[] computeContext(@NotNull List<ABCContainerTag> abcTags) {
+        MessageDigest digest = newSha1();
+        for (ABCContainerTag tag : abcTags) {
+            ABC abc = tag.getABC();
+            ScriptDigest scriptDigest = new ScriptDigest(abc, digest);
+            scriptDigest.update(abc.script_info.size());
+            for (ScriptInfo scriptInfo : abc.script_info) {
+                scriptDigest.update(scriptInfo.traits.traits.size());
+                for (Trait trait : scriptInfo.traits.traits) {
+                    scriptDigest.updateMultiname(trait.name_index);
+                    if (trait instanceof TraitSlotConst && ((TraitSlotConst) trait).isNamespace()) {
+                        scriptDigest.updateNamespace(((TraitSlotConst) trait).value_index);
+                    }
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @param abc The ABC block.
+     * @return The SHA-1 hash of the original bytes of the DoABC tag the block is read from,
+     * or null if the block does not come from a tag.
+     */
+    @Nullable
+    static byte[] computeTag(@NotNull ABC abc) {
+        if (!(abc.parentTag instanceof Tag)) {
+            return null;
+        }
+        ByteArrayRange range = ((Tag) abc.parentTag).getOriginalRange();
+        if (range == null) {
+            return null;
+        }
+        MessageDigest digest = newSha1();
+        digest.update(range.getArray(), range.getPos(), range.getLength());
+        return digest.digest();
+    }
+
+    @NotNull
+    static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @NotNull
+    static String toHex(@NotNull byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param hash The hash.
+     * @return The non-negative stamp made of the first 8 bytes of the hash.
+     */
+    static long toStamp(@NotNull byte[] hash) {
+        long stamp = 0;
+        for (int i = 0; i < 8 && i < hash.length; i++) {
+            stamp = (stamp << 8) | (hash[i] & 0xff);
+        }
+        return stamp & Long.MAX_VALUE;
+    }
+
+    private void update(@NotNull ScriptInfo scriptInfo) {
+        updateMethod(scriptInfo.init_index);
+        updateTraits(scriptInfo.traits);
+    }
+
+    private void updateTraits(Traits traits) {
+        if (traits == null) {
+            update(-1);
+            return;
+        }
+        update(traits.traits.size());
+        for (Trait trait : traits.traits) {
+            updateTrait(trait);
+        }
+    }
+
+    private void updateTrait(@NotNull Trait trait) {
+        update(trait.kindType);
+        update(trait.kindFlags);
+        updateMultiname(trait.name_index);
+        if (trait.metadata != null) {
+            for (int index : trait.metadata) {
+                updateMetadata(index);
+            }
+        }
+        if (trait instanceof TraitSlotConst) {
+            TraitSlotConst slot = (TraitSlotConst) trait;
+            update(slot.slot_id);
+            updateMultiname(slot.type_index);
+            updateValue(slot.value_kind, slot.value_index);
+        } else if (trait instanceof TraitMethodGetterSetter) {
+            TraitMethodGetterSetter method = (TraitMethodGetterSetter) trait;
+            update(method.disp_id);
+            updateMethod(method.method_info);
+        } else if (trait instanceof TraitFunction) {
+            TraitFunction function = (TraitFunction) trait;
+            update(function.slot_id);
+            updateMethod(function.method_info);
+        } else if (trait instanceof TraitClass) {
+            TraitClass traitClass = (TraitClass) trait;
+            update(traitClass.slot_id);
+            updateClass(traitClass.class_info);
+        }
+    }
+
+    private void updateClass(int index) {
+        if (index < 0 || index >= abc.instance_info.size()) {
+            update(-1);
+            return;
+        }
+        InstanceInfo instanceInfo = abc.instance_info.get(index);
+        updateMultiname(instanceInfo.name_index);
+        updateMultiname(instanceInfo.super_index);
+        update(instanceInfo.flags);
+        updateNamespace(instanceInfo.protectedNS);
+        if (instanceInfo.interfaces != null) {
+            for (int i : instanceInfo.interfaces) {
+                updateMultiname(i);
+            }
+        }
+        updateMethod(instanceInfo.iinit_index);
+        updateTraits(instanceInfo.instance_traits);
+
+        ClassInfo classInfo = abc.class_info.get(index);
+        updateMethod(classInfo.cinit_index);
+        updateTraits(classInfo.static_traits);
+    }
+
+    private void updateMethod(int index) {
+        if (index < 0 || index >= abc.method_info.size() || !visitedMethods.add(index)) {
+            update(-1);
+            return;
+        }
+        MethodInfo methodInfo = abc.method_info.get(index);
+        update(methodInfo.flags);
+        updateMultiname(methodInfo.ret_type);
+        updateString(methodInfo.name_index);
+        if (methodInfo.param_types != null) {
+            for (int type : methodInfo.param_types) {
+                updateMultiname(type);
+            }
+        }
+        if (methodInfo.optional != null) {
+            for (ValueKind value : methodInfo.optional) {
+                updateValue(value.value_kind, value.value_index);
+            }
+        }
+        if (methodInfo.paramNames != null) {
+            for (int name : methodInfo.paramNames) {
+                updateString(name);
+            }
+        }
+        MethodBody body = abc.findBody(index);
+        if (body == null) {
+            update(-1);
+            return;
+        }
+        update(body.max_stack);
+        update(body.max_regs);
+        update(body.init_scope_depth);
+        update(body.max_scope_depth);
+        if (body.exceptions != null) {
+            for (ABCException exception : body.exceptions) {
+                update(exception.start);
+                update(exception.end);
+                update(exception.target);
+                updateMultiname(exception.type_index);
+                updateMultiname(exception.name_index);
+            }
+        }
+        updateTraits(body.traits);
+        updateCode(body.getCode());
+    }
+
+    private void updateCode(@NotNull AVM2Code code) {
+        for (AVM2Instruction instruction : code.code) {
+            update(instruction.definition.instructionCode);
+            int[] types = instruction.definition.operands;
+            int[] operands = instruction.operands;
+            if (operands == null) {
+                continue;
+            }
+            for (int i = 0; i < operands.length; i++) {
+                int type = types != null && i < types.length ? types[i] : 0;
+                int operand = operands[i];
+                switch (type) {
+                    case AVM2Code.DAT_MULTINAME_INDEX:
+                        updateMultiname(operand);
+                        break;
+                    case AVM2Code.DAT_STRING_INDEX:
+                        updateString(operand);
+                        break;
+                    case AVM2Code.DAT_INT_INDEX:
+                        update(operand > 0 && operand < constants.getIntCount() ? constants.getInt(operand) : 0L);
+                        break;
+                    case AVM2Code.DAT_UINT_INDEX:
+                        update(operand > 0 && operand < constants.getUIntCount() ? constants.getUInt(operand) : 0L);
+                        break;
+                    case AVM2Code.DAT_DOUBLE_INDEX:
+                        update(operand > 0 && operand < constants.getDoubleCount()
+                               ? Double.doubleToLongBits(constants.getDouble(operand)) : 0L);
+                        break;
+                    case AVM2Code.DAT_METHOD_INDEX:
+                        updateMethod(operand);
+                        break;
+                    case AVM2Code.DAT_CLASS_INDEX:
+                        updateMultiname(operand >= 0 && operand < abc.instance_info.size()
+                                        ? abc.instance_info.get(operand).name_index : 0);
+                        break;
+                    default:
+                        update(operand);
+                        break;
+                }
+            }
+        }
+    }
+
+    private void updateMetadata(int index) {
+        if (index < 0 || index >= abc.metadata_info.size()) {
+            update(-1);
+            return;
+        }
+        MetadataInfo metadataInfo = abc.metadata_info.get(index);
+        updateString(metadataInfo.name_index);
+        for (int i = 0; i < metadataInfo.keys.length; i++) {
+            updateString(metadataInfo.keys[i]);
+            updateString(metadataInfo.values[i]);
+        }
+    }
+
+    private void updateValue(int kind, int index) {
+        update(kind);
+        switch (kind) {
+            case ValueKind.CONSTANT_Int:
+                update(index > 0 && index < constants.getIntCount() ? constants.getInt(index) : 0L);
+                break;
+            case ValueKind.CONSTANT_UInt:
+                update(index > 0 && index < constants.getUIntCount() ? constants.getUInt(index) : 0L);
+                break;
+            case ValueKind.CONSTANT_Double:
+                update(index > 0 && index < constants.getDoubleCount()
+                       ? Double.doubleToLongBits(constants.getDouble(index)) : 0L);
+                break;
+            case ValueKind.CONSTANT_Utf8:
+                updateString(index);
+                break;
+            case ValueKind.CONSTANT_Namespace:
+            case ValueKind.CONSTANT_PackageNamespace:
+            case ValueKind.CONSTANT_PackageInternalNs:
+            case ValueKind.CONSTANT_ProtectedNamespace:
+            case ValueKind.CONSTANT_ExplicitNamespace:
+            case ValueKind.CONSTANT_StaticProtectedNs:
+            case ValueKind.CONSTANT_PrivateNs:
+                updateNamespace(index);
+                break;
+            default:
+                update(index);
+                break;
+        }
+    }
+
+    private void updateMultiname(int index) {
+        Multiname multiname = index > 0 && index < constants.getMultinameCount() ? constants.getMultiname(index) : null;
+        if (multiname == null) {
+            update(-1);
+            return;
+        }
+        update(multiname.kind);
+        updateString(multiname.name_index);
+        updateNamespace(multiname.namespace_index);
+        NamespaceSet namespaceSet = multiname.namespace_set_index > 0
+                                    && multiname.namespace_set_index < constants.getNamespaceSetCount()
+                                    ? constants.getNamespaceSet(multiname.namespace_set_index) : null;
+        if (namespaceSet != null && namespaceSet.namespaces != null) {
+            for (int ns : namespaceSet.namespaces) {
+                updateNamespace(ns);
+            }
+        }
+        if (multiname.qname_index != index) {
+            updateMultiname(multiname.qname_index);
+        }
+        if (multiname.params != null) {
+            for (Integer param : multiname.params) {
+                updateMultiname(param != null && param != index ? param : 0);
+            }
+        }
+    }
+
+    private void updateNamespace(int index) {
+        Namespace namespace = index > 0 && index < constants.getNamespaceCount() ? constants.getNamespace(index) : null;
+        if (namespace == null) {
+            update(-1);
+            return;
+        }
+        update(namespace.kind);
+        updateString(namespace.name_index);
+    }
+
+    private void updateString(int index) {
+        String s = index > 0 && index < constants.getStringCount() ? constants.getString(index) : null;
+        update(s);
+    }
+
+    private void update(String s) {
+        if (s == null) {
+            update(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        update(bytes.length);
+        digest.update(bytes);
+    }
+
+    private void update(int value) {
+        buffer[0] = (byte) (value >>> 24);
+        buffer[1] = (byte) (value >>> 16);
+        buffer[2] = (byte) (value >>> 8);
+        buffer[3] = (byte) value;
+        digest.update(buffer, 0, 4);
+    }
+
+    private void update(long value) {
+        update((int) (value >>> 32));
+        update((int) value);
+    }
+}
@@ -0,0 +1,299 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.intellij.util.ArrayUtil;
+import com.jpexs.decompiler.flash.abc.ScriptPack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The package/class trie of the script packs of a swf file.
+ * It is built once per swf and stored as int node ids with parallel arrays, the root has id 0 and the parents
+ * have smaller ids than their children. The nodes are indexed in an open addressing hash table by the parent id
+ * and the name, so a lookup by the qualified name or by a path hashes the segments in place and does not allocate.
+ * Each tree has its own generation, so the node ids resolved in one tree are not used with another one.
+ *
+ * @author epolyakov
+ */
+final class ScriptPackTree {
+
+    static final int ROOT = 0;
+    static final int NONE = -1;
+
+    private static final int[] NO_CHILDREN = new int[0];
+    private static final AtomicInteger lastGeneration = new AtomicInteger();
+
+    private final int generation;
+    private final String[] names;
+    private final String[] qNames;
+    private final int[] parents;
+    private final int[][] children;
+    private final String[][] childrenNames;
+    private final ScriptPack[] scriptPacks;
+    private final int[] table;
+    // The same tree without the script packs, it keeps the structure when the swf file is unloaded.
+    private final ScriptPackTree shape;
+
+    ScriptPackTree(@NotNull List<ScriptPack> packs) {
+        generation = lastGeneration.incrementAndGet();
+        // The temporary index of the nodes by the qualified names, it is dropped after the tree is built.
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> qNameList = new ArrayList<>();
+        List<Integer> parentList = new ArrayList<>();
+        List<ScriptPack> packList = new ArrayList<>();
+        ids.put("", ROOT);
+        qNameList.add("");
+        parentList.add(NONE);
+        packList.add(null);
+
+        for (ScriptPack scriptPack : packs) {
+            String qName = scriptPack.getClassPath().toString();
+            int parent = ROOT;
+            int start = 0;
+            while (true) {
+                int end = qName.indexOf('.', start);
+                String prefix = end < 0 ? qName : qName.substring(0, end);
+                Integer id = ids.get(prefix);
+                if (id == null) {
+                    id = qNameList.size();
+                    ids.put(prefix, id);
+                    qNameList.add(prefix);
+                    parentList.add(parent);
+                    packList.add(null);
+                }
+                parent = id;
+                if (end < 0) {
+                    break;
+                }
+                start = end + 1;
+            }
+            if (packList.get(parent) == null) {
+                packList.set(parent, scriptPack);
+            }
+        }
+
+        int count = qNameList.size();
+        qNames = qNameList.toArray(new String[count]);
+        names = new String[count];
+        parents = new int[count];
+        scriptPacks = packList.toArray(new ScriptPack[count]);
+        int[] childCounts = new int[count];
+        for (int id = 0; id < count; id++) {
+            String qName = qNameList.get(id);
+            names[id] = qName.substring(qName.lastIndexOf('.') + 1).intern();
+            parents[id] = parentList.get(id);
+            if (id != ROOT) {
+                childCounts[parents[id]]++;
+            }
+        }
+        children = new int[count][];
+        for (int id = 0; id < count; id++) {
+            children[id] = childCounts[id] > 0 ? new int[childCounts[id]] : NO_CHILDREN;
+            childCounts[id] = 0;
+        }
+        for (int id = 1; id < count; id++) {
+            int parent = parents[id];
+            children[parent][childCounts[parent]++] = id;
+        }
+        childrenNames = new String[count][];
+        for (int id = 0; id < count; id++) {
+            int[] childIds = children[id];
+            if (childIds.length == 0) {
+                childrenNames[id] = ArrayUtil.EMPTY_STRING_ARRAY;
+                continue;
+            }
+            Integer[] sorted = new Integer[childIds.length];
+            for (int i = 0; i < childIds.length; i++) {
+                sorted[i] = childIds[i];
+            }
+            Arrays.sort(sorted, (a, b) -> names[a].compareTo(names[b]));
+            String[] sortedNames = new String[childIds.length];
+            for (int i = 0; i < childIds.length; i++) {
+                childIds[i] = sorted[i];
+                sortedNames[i] = names[sorted[i]];
+            }
+            childrenNames[id] = sortedNames;
+        }
+
+        // The table size is a power of two at least twice the number of the nodes, the empty slots are NONE.
+        table = new int[Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1];
+        Arrays.fill(table, NONE);
+        for (int id = 1; id < count; id++) {
+            int slot = hash(parents[id], names[id], 0, names[id].length()) & (table.length - 1);
+            while (table[slot] != NONE) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = id;
+        }
+        shape = new ScriptPackTree(this);
+    }
+
+    /**
+     * Constructs the shape of the tree which shares everything but the script packs.
+     */
+    private ScriptPackTree(@NotNull ScriptPackTree tree) {
+        generation = tree.generation;
+        names = tree.names;
+        qNames = tree.qNames;
+        parents = tree.parents;
+        children = tree.children;
+        childrenNames = tree.childrenNames;
+        scriptPacks = new ScriptPack[names.length];
+        table = tree.table;
+        shape = this;
+    }
+
+    /**
+     * Finds the node by the qualified name.
+     *
+     * @param qName The qualified name like "com.mypackage.MyClass", the empty string is the root.
+     * @return The node id or {@link #NONE} if there is neither a package nor a class with this name.
+     */
+    int find(@NotNull String qName) {
+        int node = ROOT;
+        int start = 0;
+        int length = qName.length();
+        while (node != NONE && start < length) {
+            int end = qName.indexOf('.', start);
+            if (end < 0) {
+                end = length;
+            }
+            node = findChild(node, qName, start, end);
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /**
+     * Finds the child by the name which is the region of the qualified name or of the path.
+     *
+     * @return The node id or {@link #NONE} if there is no such child.
+     */
+    int findChild(int node, @NotNull String s, int start, int end) {
+        int mask = table.length - 1;
+        for (int slot = hash(node, s, start, end) & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot];
+            if (id == NONE || parents[id] == node && names[id].length() == end - start
+                    && names[id].regionMatches(0, s, start, end - start)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return The qualified names of all the classes in the depth-first order.
+     */
+    @NotNull
+    List<String> getClassNames() {
+        List<String> result = new ArrayList<>();
+        collectClassNames(ROOT, result);
+        return result;
+    }
+
+    private void collectClassNames(int node, @NotNull List<String> result) {
+        if (scriptPacks[node] != null) {
+            result.add(qNames[node]);
+        }
+        for (int child : children[node]) {
+            collectClassNames(child, result);
+        }
+    }
+
+    /**
+     * @return The generation of the tree, the trees built later have greater generations.
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return The tree without the script packs, it has the same generation and node ids.
+     */
+    @NotNull
+    ScriptPackTree getShape() {
+        return shape;
+    }
+
+    /**
+     * @return The number of the script packs in the tree.
+     */
+    int getScriptPackCount() {
+        int count = 0;
+        for (ScriptPack scriptPack : scriptPacks) {
+            if (scriptPack != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of the nodes including the root.
+     */
+    int getNodeCount() {
+        return names.length;
+    }
+
+    @NotNull
+    String getName(int node) {
+        return names[node];
+    }
+
+    @NotNull
+    String getQualifiedName(int node) {
+        return qNames[node];
+    }
+
+    int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @return True if the node has children, i.e. it is a package.
+     */
+    boolean isPackage(int node) {
+        return children[node].length > 0;
+    }
+
+    /**
+     * @return The script pack of the class or null if the node is a package only.
+     */
+    @Nullable
+    ScriptPack getScriptPack(int node) {
+        return node != NONE ? scriptPacks[node] : null;
+    }
+
+    /**
+     * @return The copy of the names of the children sorted by the names.
+     */
+    @NotNull
+    String[] getChildrenNames(int node) {
+        String[] result = childrenNames[node];
+        return result.length > 0 ? result.clone() : result;
+    }
+
+    int getChildCount(int node) {
+        return children[node].length;
+    }
+
+    /**
+     * @return The child by its index in the children sorted by the names.
+     */
+    int getChild(int node, int index) {
+        return children[node][index];
+    }
+
+    private static int hash(int parent, @NotNull String s, int start, int end) {
+        int h = parent;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+}
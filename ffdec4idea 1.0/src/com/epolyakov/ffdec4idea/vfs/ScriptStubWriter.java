@@ -0,0 +1,188 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.jpexs.decompiler.flash.abc.ABC;
+import com.jpexs.decompiler.flash.abc.ScriptPack;
+import com.jpexs.decompiler.flash.abc.avm2.AVM2ConstantPool;
+import com.jpexs.decompiler.flash.abc.types.InstanceInfo;
+import com.jpexs.decompiler.flash.abc.types.MethodInfo;
+import com.jpexs.decompiler.flash.abc.types.Multiname;
+import com.jpexs.decompiler.flash.abc.types.Namespace;
+import com.jpexs.decompiler.flash.abc.types.ValueKind;
+import com.jpexs.decompiler.flash.abc.types.traits.Trait;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitClass;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitFunction;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitMethodGetterSetter;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitSlotConst;
+import com.jpexs.decompiler.flash.helpers.GraphTextWriter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Writes the declarations of a script pack straight from the ABC traits: the package, the classes, the fields and
+ * the method signatures with empty bodies. The method bodies are not decompiled, so it is much faster than
+ * the full decompilation and is enough for indexing and structure views.
+ * The types are written with their qualified names, so there are no imports.
+ *
+ * @author epolyakov
+ */
+final class ScriptStubWriter {
+
+    private final ABC abc;
+    private final AVM2ConstantPool constants;
+    private final GraphTextWriter writer;
+
+    private ScriptStubWriter(@NotNull ABC abc, @NotNull GraphTextWriter writer) {
+        this.abc = abc;
+        this.constants = abc.constants;
+        this.writer = writer;
+    }
+
+    /**
+     * Writes the stub of the script pack.
+     *
+     * @param scriptPack The script pack.
+     * @param writer     The writer.
+     */
+    static void write(@NotNull ScriptPack scriptPack, @NotNull GraphTextWriter writer) {
+        new ScriptStubWriter(scriptPack.abc, writer).writeScript(scriptPack);
+    }
+
+    private void writeScript(@NotNull ScriptPack scriptPack) {
+        List<Trait> traits = abc.script_info.get(scriptPack.scriptIndex).traits.traits;
+        String packageName = scriptPack.getClassPath().packageStr;
+        writer.append(packageName == null || packageName.isEmpty() ? "package" : "package " + packageName).newLine();
+        writer.append("{").newLine().indent();
+        for (int traitIndex : scriptPack.traitIndices) {
+            Trait trait = traits.get(traitIndex);
+            if (trait instanceof TraitClass) {
+                writeClass((TraitClass) trait);
+            } else {
+                writeMember(trait, false, false);
+            }
+        }
+        writer.unindent().append("}").newLine();
+    }
+
+    private void writeClass(@NotNull TraitClass trait) {
+        InstanceInfo instanceInfo = abc.instance_info.get(trait.class_info);
+        Multiname name = instanceInfo.getName(constants);
+        Namespace namespace = name.getNamespace(constants);
+        boolean isInterface = instanceInfo.isInterface();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(namespace != null && namespace.kind == Namespace.KIND_PACKAGE ? "public " : "internal ");
+        if (instanceInfo.isFinal() && !isInterface) {
+            sb.append("final ");
+        }
+        if (instanceInfo.isDynamic()) {
+            sb.append("dynamic ");
+        }
+        sb.append(isInterface ? "interface " : "class ").append(name.getName(constants, null, false));
+        String superName = !isInterface && instanceInfo.super_index > 0 ? getTypeName(instanceInfo.super_index) : "Object";
+        if (!superName.equals("Object")) {
+            sb.append(" extends ").append(superName);
+        }
+        if (instanceInfo.interfaces != null && instanceInfo.interfaces.length > 0) {
+            sb.append(isInterface ? " extends " : " implements ");
+            for (int i = 0; i < instanceInfo.interfaces.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(getTypeName(instanceInfo.interfaces[i]));
+            }
+        }
+        writer.append(sb.toString()).newLine();
+        writer.append("{").newLine().indent();
+
+        for (Trait staticTrait : abc.class_info.get(trait.class_info).static_traits.traits) {
+            writeMember(staticTrait, true, false);
+        }
+        if (!isInterface) {
+            writeSignature("public function " + name.getName(constants, null, false),
+                    abc.method_info.get(instanceInfo.iinit_index), false, false);
+        }
+        for (Trait instanceTrait : instanceInfo.instance_traits.traits) {
+            writeMember(instanceTrait, false, isInterface);
+        }
+        writer.unindent().append("}").newLine();
+    }
+
+    private void writeMember(@NotNull Trait trait, boolean isStatic, boolean isInterface) {
+        String modifiers = isInterface ? "" : getModifiers(trait, isStatic);
+        String name = trait.getName(abc).getName(constants, null, false);
+        if (trait instanceof TraitSlotConst) {
+            TraitSlotConst slot = (TraitSlotConst) trait;
+            if (slot.isNamespace()) {
+                writer.append(modifiers + "namespace " + name + ";").newLine();
+            } else {
+                writer.append(modifiers + (slot.isConst() ? "const " : "var ") + name + ":"
+                        + getTypeName(slot.type_index) + ";").newLine();
+            }
+        } else if (trait instanceof TraitMethodGetterSetter) {
+            TraitMethodGetterSetter method = (TraitMethodGetterSetter) trait;
+            String kind = method.kindType == Trait.TRAIT_GETTER ? "get " : method.kindType == Trait.TRAIT_SETTER ? "set " : "";
+            writeSignature(modifiers + "function " + kind + name, abc.method_info.get(method.method_info), true, isInterface);
+        } else if (trait instanceof TraitFunction) {
+            writeSignature(modifiers + "function " + name,
+                    abc.method_info.get(((TraitFunction) trait).method_info), true, false);
+        } else if (trait instanceof TraitClass) {
+            writeClass((TraitClass) trait);
+        }
+    }
+
+    /**
+     * Writes the method signature with the empty body, the interface methods have no body.
+     */
+    private void writeSignature(@NotNull String declaration, @NotNull MethodInfo methodInfo, boolean hasReturnType,
+                                boolean isInterface) {
+        StringBuilder sb = new StringBuilder(declaration).append('(');
+        int paramCount = methodInfo.param_types.length;
+        int firstOptional = paramCount - (methodInfo.optional != null ? methodInfo.optional.length : 0);
+        for (int i = 0; i < paramCount; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(getParamName(methodInfo, i)).append(':').append(getTypeName(methodInfo.param_types[i]));
+            if (i >= firstOptional) {
+                ValueKind value = methodInfo.optional[i - firstOptional];
+                sb.append(" = ").append(value.toString(constants));
+            }
+        }
+        if (methodInfo.flagNeed_rest()) {
+            sb.append(paramCount > 0 ? ", ..." : "...").append("rest");
+        }
+        sb.append(')');
+        if (hasReturnType) {
+            sb.append(':').append(getTypeName(methodInfo.ret_type));
+        }
+        sb.append(isInterface ? ";" : " {}");
+        writer.append(sb.toString()).newLine();
+    }
+
+    @NotNull
+    private String getModifiers(@NotNull Trait trait, boolean isStatic) {
+        String modifiers = trait.getModifiers(abc, isStatic).trim();
+        return modifiers.isEmpty() ? "" : modifiers + " ";
+    }
+
+    @NotNull
+    private String getParamName(@NotNull MethodInfo methodInfo, int index) {
+        if (methodInfo.flagHas_paramnames() && methodInfo.paramNames != null && index < methodInfo.paramNames.length
+                && methodInfo.paramNames[index] > 0) {
+            return constants.getString(methodInfo.paramNames[index]);
+        }
+        return "param" + (index + 1);
+    }
+
+    @NotNull
+    private String getTypeName(int multinameIndex) {
+        if (multinameIndex <= 0) {
+            return "*";
+        }
+        Multiname multiname = constants.getMultiname(multinameIndex);
+        return multiname.kind == Multiname.TYPENAME
+                ? multiname.getName(constants, null, false)
+                : multiname.getNameWithNamespace(constants, false);
+    }
+}
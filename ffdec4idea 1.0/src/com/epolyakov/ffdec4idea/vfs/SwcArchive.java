@@ -0,0 +1,280 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the library.swf of a swc archive in place, so the swc file is mounted like a swf file without unpacking it.
+ * The entry is found by the central directory of the archive. Its data is read from the archive file by positions,
+ * the deflated entry is inflated while it is read.
+ *
+ * @author epolyakov
+ */
+public final class SwcArchive {
+
+    public static final String EXTENSION = "swc";
+    static final String LIBRARY_ENTRY = "library.swf";
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_SIZE = 22;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int INFLATER_BUFFER_SIZE = 64 * 1024;
+
+    private SwcArchive() {
+    }
+
+    /**
+     * Checks if the file is a swc archive by its extension.
+     *
+     * @param file The file.
+     * @return True if the file is swc.
+     */
+    public static boolean isSwcFile(@Nullable VirtualFile file) {
+        return file != null && !file.isDirectory() && EXTENSION.equalsIgnoreCase(file.getExtension());
+    }
+
+    /**
+     * Opens the library.swf entry of the swc file on the disk.
+     *
+     * @param swcFile The swc file.
+     * @return The stream of the uncompressed bytes of the entry.
+     * @throws IOException If the archive is broken or it has no library.swf.
+     */
+    @NotNull
+    static InputStream openLibrary(@NotNull File swcFile) throws IOException {
+        FileChannel channel = FileChannel.open(swcFile.toPath(), StandardOpenOption.READ);
+        Entry entry;
+        try {
+            entry = findLibrary(channel, swcFile);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        InputStream data = new EntryInputStream(channel, entry.dataOffset, entry.compressedSize);
+        if (entry.method == ZipEntry.STORED) {
+            return data;
+        }
+        return new EntryInflaterInputStream(data);
+    }
+
+    /**
+     * Opens the library.swf entry of the swc archive which is not on the disk, e.g. inside of another archive.
+     * The archive is read sequentially up to the entry.
+     *
+     * @param swcStream The stream of the swc archive, it is closed with the returned stream.
+     * @return The stream of the uncompressed bytes of the entry.
+     * @throws IOException If the archive has no library.swf.
+     */
+    @NotNull
+    static InputStream openLibrary(@NotNull InputStream swcStream) throws IOException {
+        ZipInputStream zip = new ZipInputStream(swcStream);
+        try {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                if (LIBRARY_ENTRY.equals(entry.getName())) {
+                    return zip;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+        zip.close();
+        throw new IOException("No " + LIBRARY_ENTRY + " in the swc archive.");
+    }
+
+    /**
+     * Finds the library.swf entry in the central directory and its data after the local header.
+     */
+    @NotNull
+    private static Entry findLibrary(@NotNull FileChannel channel, @NotNull File swcFile) throws IOException {
+        long size = channel.size();
+        int tailSize = (int) Math.min(size, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(channel, size - tailSize, tailSize);
+        int end = tailSize - END_SIZE;
+        while (end >= 0 && tail.getInt(end) != END_SIGNATURE) {
+            end--;
+        }
+        if (end < 0) {
+            throw new IOException(swcFile.getName() + " is not a swc archive.");
+        }
+        long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+        long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+        if (directoryOffset + directorySize > size) {
+            throw new IOException("Unsupported central directory of " + swcFile.getName() + ".");
+        }
+
+        ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+        byte[] libraryName = LIBRARY_ENTRY.getBytes(StandardCharsets.UTF_8);
+        int position = 0;
+        while (position + CENTRAL_HEADER_SIZE <= directorySize && directory.getInt(position) == CENTRAL_SIGNATURE) {
+            int nameLength = directory.getShort(position + 28) & 0xffff;
+            int extraLength = directory.getShort(position + 30) & 0xffff;
+            int commentLength = directory.getShort(position + 32) & 0xffff;
+            if (nameLength == libraryName.length && equals(directory, position + CENTRAL_HEADER_SIZE, libraryName)) {
+                int flags = directory.getShort(position + 8) & 0xffff;
+                int method = directory.getShort(position + 10) & 0xffff;
+                long compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+                long localOffset = directory.getInt(position + 42) & 0xffffffffL;
+                if ((flags & 1) != 0 || (method != ZipEntry.STORED && method != ZipEntry.DEFLATED)) {
+                    throw new IOException("Unsupported compression of " + LIBRARY_ENTRY + " in " + swcFile.getName() + ".");
+                }
+                ByteBuffer local = read(channel, localOffset, LOCAL_HEADER_SIZE);
+                if (local.getInt(0) != LOCAL_SIGNATURE) {
+                    throw new IOException("Broken local header of " + LIBRARY_ENTRY + " in " + swcFile.getName() + ".");
+                }
+                long dataOffset = localOffset + LOCAL_HEADER_SIZE
+                        + (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+                if (dataOffset + compressedSize > size) {
+                    throw new IOException("Broken entry " + LIBRARY_ENTRY + " in " + swcFile.getName() + ".");
+                }
+                return new Entry(method, dataOffset, compressedSize);
+            }
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        throw new IOException("No " + LIBRARY_ENTRY + " in " + swcFile.getName() + ".");
+    }
+
+    @NotNull
+    private static ByteBuffer read(@NotNull FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static boolean equals(@NotNull ByteBuffer buffer, int offset, @NotNull byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Entry {
+
+        private final int method;
+        private final long dataOffset;
+        private final long compressedSize;
+
+        private Entry(int method, long dataOffset, long compressedSize) {
+            this.method = method;
+            this.dataOffset = dataOffset;
+            this.compressedSize = compressedSize;
+        }
+    }
+
+    /**
+     * Reads the data of the entry from the channel of the archive file, the channel is closed with the stream.
+     */
+    private static final class EntryInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        private EntryInputStream(@NotNull FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) > 0 ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(@NotNull byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int count = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, end - position)), position);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of " + LIBRARY_ENTRY + ".");
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(end - position, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Inflates the raw deflate data of the entry and releases the inflater on close.
+     */
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+
+        private boolean eof;
+
+        private EntryInflaterInputStream(@NotNull InputStream in) {
+            super(in, new Inflater(true), INFLATER_BUFFER_SIZE);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of " + LIBRARY_ENTRY + ".");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                // The inflater without the zlib wrapper needs an extra byte at the end of the data.
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
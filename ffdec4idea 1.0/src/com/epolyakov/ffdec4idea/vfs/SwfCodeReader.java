@@ -0,0 +1,230 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.jpexs.decompiler.flash.SWF;
+import com.jpexs.decompiler.flash.SWFCompression;
+import com.jpexs.decompiler.flash.SWFInputStream;
+import com.jpexs.decompiler.flash.tags.DoABCDefineTag;
+import com.jpexs.decompiler.flash.tags.DoABCTag;
+import com.jpexs.decompiler.flash.tags.EndTag;
+import com.jpexs.decompiler.flash.tags.FileAttributesTag;
+import com.jpexs.decompiler.flash.tags.SymbolClassTag;
+import com.jpexs.decompiler.flash.tags.Tag;
+import com.jpexs.decompiler.flash.tags.TagStub;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads the code tags of a swf file only: the DoABC tags, the SymbolClass and the FileAttributes tags.
+ * The tag headers are scanned and the bodies of the other tags, e.g. shapes, bitmaps, sounds and sprites,
+ * are skipped without parsing. The DoABC tags stay unparsed stubs until the swf is materialized,
+ * which happens when the class tree of the swf file is built, then they are parsed in parallel.
+ *
+ * @author epolyakov
+ */
+final class SwfCodeReader {
+
+    private static final int HEADER_SIZE = 8;
+
+    private SwfCodeReader() {
+    }
+
+    /**
+     * Reads the code tags of the swf. The swf files of the other formats, e.g. GFX, are parsed as a whole.
+     * The swf must be materialized before its ABC list is requested, SWF caches the list on the first call.
+     *
+     * @param inputStream The stream of the swf file.
+     * @return The swf.
+     */
+    @NotNull
+    static SWF read(@NotNull InputStream inputStream) throws IOException, InterruptedException {
+        byte[] bytes = readAll(inputStream);
+        if (bytes.length < HEADER_SIZE) {
+            throw new IOException("SWF header is too short");
+        }
+        String signature = new String(bytes, 0, 3, StandardCharsets.US_ASCII);
+        byte[] data;
+        SWFCompression compression;
+        switch (signature) {
+            case "FWS":
+                data = bytes;
+                compression = SWFCompression.NONE;
+                break;
+            case "CWS":
+            case "ZWS":
+                ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 2);
+                if (!SWF.decompress(new ByteArrayInputStream(bytes), out)) {
+                    throw new IOException("Invalid SWF file");
+                }
+                data = out.toByteArray();
+                compression = signature.equals("CWS") ? SWFCompression.ZLIB : SWFCompression.LZMA;
+                break;
+            default:
+                return new SWF(new ByteArrayInputStream(bytes), false);
+        }
+
+        SWF swf = new SWF();
+        swf.compression = compression;
+        swf.uncompressedData = data;
+        SWFInputStream sis = new SWFInputStream(swf, data);
+        sis.readBytesEx(3, "signature");
+        swf.version = sis.readUI8("version");
+        sis.readUI32("fileSize");
+        swf.displayRect = sis.readRECT("displayRect");
+        sis.readUI8("tmpFirstByetOfFrameRate");
+        swf.frameRate = sis.readUI8("frameRate");
+        swf.frameCount = sis.readUI16("frameCount");
+        int headerLength = (int) sis.getPos();
+
+        // The code tags are copied to a compact swf, so the bytes of the other tags are not retained.
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        code.write(data, 0, headerLength);
+        while (sis.available() > 0) {
+            long position = sis.getPos();
+            Tag tag;
+            try {
+                // The tag is not resolved, so its body is skipped.
+                tag = sis.readTag(swf, 0, position, false, false, true);
+            } catch (IOException e) {
+                // The truncated tail is ignored as ffdec does.
+                break;
+            }
+            if (tag.getId() == EndTag.ID) {
+                break;
+            }
+            if (isCodeTag(tag.getId())) {
+                code.write(data, (int) position, (int) (sis.getPos() - position));
+            }
+        }
+        // The End tag and the file size of the compact swf.
+        code.write(new byte[2]);
+        byte[] compact = code.toByteArray();
+        for (int i = 0; i < 4; i++) {
+            compact[4 + i] = (byte) (compact.length >>> (8 * i));
+        }
+        swf.fileSize = compact.length;
+        swf.uncompressedData = compact;
+        swf.originalUncompressedData = compact;
+
+        List<Tag> tags = new ArrayList<>();
+        sis = new SWFInputStream(swf, compact);
+        sis.seek(headerLength);
+        while (true) {
+            Tag tag = sis.readTag(swf, 0, sis.getPos(), false, false, true);
+            if (tag.getId() == EndTag.ID) {
+                break;
+            }
+            if (tag.getId() == SymbolClassTag.ID || tag.getId() == FileAttributesTag.ID) {
+                tag = resolve((TagStub) tag);
+            }
+            tag.setTimelined(swf);
+            tags.add(tag);
+        }
+        swf.tags = tags;
+        swf.hasEndTag = true;
+        return swf;
+    }
+
+    /**
+     * Parses the DoABC tags which have been skipped by {@link #read(InputStream)}, it does nothing if they are parsed.
+     * The ABC blocks are independent, so they are parsed in parallel on the pool. The parsed tags keep the order
+     * of the tags in the swf file, so the script packs of the swf do not depend on the order of the parsing.
+     * The tags are parsed outside of the lock of the swf and only the parsed list is published under it,
+     * so the threads which lock the swf do not wait for the parsing.
+     *
+     * @param swf  The swf.
+     * @param pool The pool that parses the tags, they are parsed on the current thread if it is null.
+     */
+    static void materialize(@NotNull SWF swf, @Nullable ForkJoinPool pool) {
+        List<Tag> stubbed;
+        Tag[] tags;
+        synchronized (swf) {
+            stubbed = swf.tags;
+            tags = stubbed.toArray(new Tag[stubbed.size()]);
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i] instanceof TagStub) {
+                int index = i;
+                TagStub stub = (TagStub) tags[i];
+                tasks.add(ForkJoinTask.adapt(() -> tags[index] = resolve(stub)));
+            }
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        if (pool == null || pool.getParallelism() < 2 || tasks.size() < 2) {
+            tasks.forEach(ForkJoinTask::invoke);
+        } else {
+            tasks.forEach(pool::execute);
+            // Joining from a worker of the pool runs the queued tasks instead of blocking the worker.
+            tasks.forEach(ForkJoinTask::join);
+        }
+        synchronized (swf) {
+            // The tags parsed by a concurrent call are kept if they have been published first.
+            if (swf.tags == stubbed) {
+                swf.tags = new ArrayList<>(Arrays.asList(tags));
+            }
+        }
+    }
+
+    /**
+     * @return The total size of the code tags of the swf read by {@link #read(InputStream)}.
+     */
+    static long getCodeLength(@NotNull SWF swf) {
+        long length = 0;
+        for (Tag tag : swf.tags) {
+            length += tag.getOriginalDataLength();
+        }
+        return length;
+    }
+
+    private static boolean isCodeTag(int id) {
+        return id == DoABCTag.ID || id == DoABCDefineTag.ID || id == SymbolClassTag.ID || id == FileAttributesTag.ID;
+    }
+
+    /**
+     * Parses the body of the tag. The interrupt of the current thread is postponed until the tag is parsed,
+     * so the list of the tags is never left half-parsed.
+     */
+    @NotNull
+    private static Tag resolve(@NotNull TagStub stub) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    Tag tag = SWFInputStream.resolveTag(stub, 0, false, true, true);
+                    tag.setTimelined(stub.getTimelined());
+                    return tag;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @NotNull
+    private static byte[] readAll(@NotNull InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(inputStream.available(), 8192));
+        byte[] buffer = new byte[64 * 1024];
+        int length;
+        while ((length = inputStream.read(buffer)) >= 0) {
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -1,17 +1,52 @@
 package com.epolyakov.ffdec4idea.vfs;
 
+import com.intellij.notification.Notification;
+import com.intellij.notification.NotificationType;
+import com.intellij.notification.Notifications;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.ArrayUtil;
 import com.jpexs.decompiler.flash.SWF;
+import com.jpexs.decompiler.flash.abc.ABC;
 import com.jpexs.decompiler.flash.abc.ScriptPack;
-import com.jpexs.decompiler.flash.configuration.Configuration;
 import com.jpexs.decompiler.flash.exporters.modes.ScriptExportMode;
+import com.jpexs.decompiler.flash.helpers.CodeFormatting;
 import com.jpexs.decompiler.flash.helpers.collections.MyEntry;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayOutputStream;
+import java.awt.*;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -19,103 +54,940 @@ import java.util.stream.Collectors;
  */
 public class SwfHandler {
 
-    private SWF swf;
-    private List<ScriptPack> scriptPacks;
+    private static final ResourceBundle resources = ResourceBundle.getBundle("com.epolyakov.ffdec4idea.resources.ffdec4idea");
+    private static final String NOTIFICATION_GROUP = "ffdec4idea";
 
+    private static final ExecutorService loader = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ffdec4idea swf loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The decompilations with the time limit run on these threads, so the one which exceeds the limit is interrupted
+    // while the requesting thread, e.g. the event dispatch thread or an indexing thread, is never interrupted.
+    private static final ExecutorService decompiler = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ffdec4idea decompiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ForkJoinPool parallelPool = new ForkJoinPool(DecompilerOptions.getParallelism());
+    // The rough ratio of the heap taken by the parsed swf to the size of the swf file.
+    private static final int RETAINED_BYTES_PER_SWF_BYTE = 16;
+    // The sources of the identical scripts are shared by all the swf files which contain them in the same ABC context,
+    // the script hashes include the context.
+    private static final DecompiledSourceCache sourceCache = DecompiledSourceCache.getInstance();
+    // The decompilations in progress by the script hashes and the formatting keys, so an identical script requested
+    // from several swf files at once is decompiled once.
+    private static final Map<String, CompletableFuture<byte[]>> decompiling = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final AtomicBoolean preDecompileStarted = new AtomicBoolean();
+    private final Runnable loadListener;
+    // The scripts which have exceeded the decompile time limit mapped to their hashes, they are not decompiled again
+    // until their bytecode changes.
+    private final Map<String, byte[]> slowScripts = new ConcurrentHashMap<>();
+    // The classes which have been switched from the stubs to the full sources.
+    private final Set<String> fullClasses = ConcurrentHashMap.newKeySet();
+    private final Consumer<Map<String, Long>> stubListener;
+
+    // The contents which are served now and the contents of the latest reload which may still be loading.
+    private volatile Contents contents;
+    private Contents latestContents;
+    private volatile long lastAccessTime = System.currentTimeMillis();
+
+    /**
+     * Constructs the handler and starts loading the swf file in background.
+     *
+     * @param swfFile The swf file.
+     */
     public SwfHandler(@NotNull VirtualFile swfFile) {
+        this(swfFile, null);
+    }
+
+    /**
+     * Constructs the handler and starts loading the swf file in background.
+     *
+     * @param swfFile      The swf file.
+     * @param loadListener The callback which is called on the loader thread each time the swf file is loaded.
+     */
+    public SwfHandler(@NotNull VirtualFile swfFile, @Nullable Runnable loadListener) {
+        this(swfFile, loadListener, null);
+    }
+
+    /**
+     * Constructs the handler and starts loading the swf file in background.
+     *
+     * @param swfFile      The swf file.
+     * @param loadListener The callback which is called on the loader thread each time the swf file is loaded.
+     * @param stubListener The callback which gets the classes that have been switched from the stubs to
+     *                     their full sources, mapped to the modification stamps of the stubs.
+     */
+    public SwfHandler(@NotNull VirtualFile swfFile, @Nullable Runnable loadListener,
+                      @Nullable Consumer<Map<String, Long>> stubListener) {
+        this.name = swfFile.getName();
+        this.loadListener = loadListener;
+        this.stubListener = stubListener;
+        contents = latestContents = new Contents(swfFile, loadListener, true);
+        contents.getSwfFuture();
+    }
+
+    /**
+     * Loads the rebuilt swf file in background and compares its scripts with the current ones.
+     * The current contents are served until the new ones are loaded, then only the sources of the changed
+     * classes are dropped from the caches.
+     *
+     * @param swfFile The swf file.
+     * @return The future of the qualified names of the changed, added and removed classes
+     * mapped to their previous modification stamps.
+     */
+    @NotNull
+    public CompletableFuture<Map<String, Long>> reload(@NotNull VirtualFile swfFile) {
+        Contents next = new Contents(swfFile, loadListener, true);
+        synchronized (this) {
+            latestContents = next;
+        }
+        return next.getTreeFuture().handle((t, e) -> {
+            synchronized (this) {
+                if (latestContents != next) {
+                    // A newer reload has been started, it compares its contents with the current ones.
+                    return Collections.<String, Long>emptyMap();
+                }
+                Contents previous = contents;
+                Set<String> changed = getChangedClassNames(previous, next);
+                Map<String, Long> stamps = new HashMap<>();
+                for (String qName : changed) {
+                    stamps.put(qName, previous.getModificationStamp(qName));
+                }
+                // The sources of the changed classes are keyed by their previous hashes and are evicted in time.
+                contents = next;
+                return stamps;
+            }
+        });
+    }
+
+    /**
+     * @return The pool that decompiles many classes in parallel, its parallelism is {@link DecompilerOptions#getParallelism()}.
+     */
+    @NotNull
+    public static ForkJoinPool getParallelPool() {
+        return parallelPool;
+    }
+
+    /**
+     * Stores the persistent cache of the decompiled sources in the directory instead of the system directory of the IDE,
+     * e.g. when the classes are exported without the IDE. It should be called before the first class is decompiled.
+     *
+     * @param directory The directory of the cache files.
+     */
+    public static void setPersistentCacheDirectory(@NotNull File directory) {
+        PersistentSourceCache.setDirectory(directory);
+    }
+
+    /**
+     * Releases the parsed swf file, the caches of the decompiled sources and the stamps of the classes are kept.
+     * The swf file is loaded again on the next access. Nothing is released while the swf file is being reloaded.
+     */
+    public void unload() {
+        synchronized (this) {
+            Contents c = contents;
+            if (c == latestContents && c.isStarted()) {
+                contents = latestContents = new Contents(c);
+            }
+        }
+    }
+
+    /**
+     * @return The rough estimate of the heap taken by the parsed swf file, 0 if it is not loaded.
+     */
+    public long getRetainedBytes() {
+        Contents c = contents;
+        if (!c.isStarted()) {
+            return 0L;
+        }
+        long codeLength = c.codeLength;
+        if (codeLength >= 0) {
+            // Only the code tags are parsed, the uncompressed swf is kept for their original bytes.
+            return c.uncompressedLength + codeLength * RETAINED_BYTES_PER_SWF_BYTE;
+        }
+        return c.swfFile.getLength() * RETAINED_BYTES_PER_SWF_BYTE;
+    }
+
+    /**
+     * @return The time of the last access to the classes of the swf file in milliseconds.
+     */
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * Waits for the swf file to be loaded.
+     *
+     * @return The loaded swf.
+     * @throws IOException If the swf file cannot be read or parsed.
+     */
+    @NotNull
+    public SWF getSwf() throws IOException {
+        return waitForSwf(contents(), name);
+    }
+
+    @NotNull
+    private static SWF waitForSwf(@NotNull Contents c, @NotNull String name) throws IOException {
         try {
-            swf = new SWF(swfFile.getInputStream(), false);
-        } catch (InterruptedException | IOException e) {
-            e.printStackTrace();
+            return c.getSwfFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(name);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(name, cause);
+        }
+    }
+
+    /**
+     * Extracts the symbols of all the classes from the ABC traits, nothing is decompiled.
+     * The symbols of the classes with unchanged bytecode are taken from the previous symbols.
+     *
+     * @param previous The symbols of the previous version of the swf file or null.
+     * @return The symbols of the current contents.
+     * @throws IOException If the swf file cannot be read or parsed.
+     */
+    @NotNull
+    SwfSymbols getSymbols(@Nullable SwfSymbols previous) throws IOException {
+        Contents c = contents();
+        waitForSwf(c, name);
+        return getSymbols(c, previous);
+    }
+
+    /**
+     * Extracts the symbols of the swf file like {@link #getSymbols(SwfSymbols)} from a parse of the swf file
+     * which is not kept, so the swf files which are not open are indexed without creating their handlers.
+     *
+     * @param swfFile  The swf file.
+     * @param previous The symbols of the previous version of the swf file or null.
+     * @return The symbols of the swf file.
+     * @throws IOException If the swf file cannot be read or parsed.
+     */
+    @NotNull
+    static SwfSymbols readSymbols(@NotNull VirtualFile swfFile, @Nullable SwfSymbols previous) throws IOException {
+        // There is no notification, the index tries the swf file which fails to load again on the next lookup.
+        Contents c = new Contents(swfFile, null, false);
+        waitForSwf(c, swfFile.getName());
+        return getSymbols(c, previous);
+    }
+
+    @NotNull
+    private static SwfSymbols getSymbols(@NotNull Contents c, @Nullable SwfSymbols previous) {
+        ScriptPackTree tree = c.getTree();
+        Map<String, SwfSymbols.ClassSymbols> classes = new LinkedHashMap<>();
+        for (String qName : tree.getClassNames()) {
+            ScriptPack scriptPack = tree.getScriptPack(tree.find(qName));
+            byte[] scriptHash = c.getScriptHash(qName, scriptPack);
+            SwfSymbols.ClassSymbols symbols = previous != null ? previous.getClassSymbols(qName, scriptHash) : null;
+            classes.put(qName, symbols != null ? symbols : SwfSymbols.extract(qName, scriptPack, scriptHash));
         }
+        return new SwfSymbols(c.swfHash, classes);
+    }
+
+    /**
+     * @return True if the swf file has been loaded and its classes are known, or it has failed to load.
+     */
+    public boolean isLoaded() {
+        Contents c = contents;
+        return c.isStarted() && c.getTreeFuture().isDone();
+    }
+
+    /**
+     * Runs the callback when the swf file is loaded or fails to load.
+     *
+     * @param callback The callback, it is called on the loader thread or immediately if the swf is already loaded.
+     */
+    public void whenLoaded(@NotNull Runnable callback) {
+        contents().getTreeFuture().whenComplete((t, e) -> callback.run());
     }
 
-    public SWF getSwf() {
-        return swf;
+    @NotNull
+    public String getName() {
+        return name;
     }
 
+    /**
+     * @return The qualified names of all the classes in the swf file.
+     */
+    @NotNull
+    public List<String> getClassNames() {
+        return contents().getTree().getClassNames();
+    }
+
+    /**
+     * The tree queries do not wait for the swf file to be loaded on the event dispatch thread.
+     * While it is loading the swf looks like an empty package and any name looks valid.
+     */
     public boolean isPackage(@NotNull String qName) {
-        setScriptPacks();
-        String packageName = qName + ".";
-        return scriptPacks.stream()
-                .map(s -> s.getClassPath().toString())
-                .anyMatch(s -> s.startsWith(packageName));
+        ScriptPackTree tree = contents().getLoadedTree();
+        int node = tree != null ? tree.find(qName) : ScriptPackTree.NONE;
+        return node != ScriptPackTree.NONE && tree.isPackage(node);
     }
 
     public boolean isPackageOrClass(@NotNull String qName) {
-        setScriptPacks();
-        String packageName = qName + ".";
-        return scriptPacks.stream()
-                .map(s -> s.getClassPath().toString())
-                .anyMatch(s -> s.equals(qName) || s.startsWith(packageName));
+        ScriptPackTree tree = contents().getLoadedTree();
+        return tree == null || tree.find(qName) != ScriptPackTree.NONE;
     }
 
     public String[] getRootContents() {
-        setScriptPacks();
-        List<String> names = scriptPacks.stream()
-                .map(s -> s.getClassPath().toString())
-                .collect(Collectors.toList());
-        names.replaceAll(s -> {
-            int i = s.indexOf('.');
-            return i >= 0 ? s.substring(0, i) : s;
-        });
-        names = names.stream().distinct().collect(Collectors.toList());
-        return ArrayUtil.toStringArray(names);
+        ScriptPackTree tree = contents().getLoadedTree();
+        return tree != null ? tree.getChildrenNames(ScriptPackTree.ROOT) : ArrayUtil.EMPTY_STRING_ARRAY;
     }
 
     public String[] getPackageContents(@NotNull String qName) {
-        setScriptPacks();
-        String packageName = qName + ".";
-        int packageNameLength = packageName.length();
-        List<String> names = scriptPacks.stream()
-                .map(s -> s.getClassPath().toString())
-                .filter(s -> s.startsWith(packageName))
-                .collect(Collectors.toList());
-        names.replaceAll(s -> {
-            int i = s.indexOf('.', packageNameLength);
-            if (i > packageNameLength) {
-                s = s.substring(packageNameLength, i);
-            } else {
-                s = s.substring(packageNameLength);
-            }
-            return s;
-        });
-        names = names.stream().distinct().collect(Collectors.toList());
-        return ArrayUtil.toStringArray(names);
+        ScriptPackTree tree = contents().getLoadedTree();
+        int node = tree != null ? tree.find(qName) : ScriptPackTree.NONE;
+        return node != ScriptPackTree.NONE ? tree.getChildrenNames(node) : ArrayUtil.EMPTY_STRING_ARRAY;
+    }
+
+    /**
+     * @return The tree of the packages and classes or null if it is not built yet and the current thread
+     * is the event dispatch thread.
+     */
+    @Nullable
+    ScriptPackTree getLoadedTree() {
+        return contents().getLoadedTree();
     }
 
     @NotNull
     public byte[] contentsToByteArray(@NotNull String qName) throws IOException {
-        setScriptPacks();
-        ScriptPack scriptPack = getScriptPackByQName(qName);
+        Contents c = contents();
+        ScriptPack scriptPack = c.getScriptPack(qName);
         if (scriptPack == null) {
             return new byte[0];
         }
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-             DecompiledSwfTextWriter writer = new DecompiledSwfTextWriter(Configuration.getCodeFormatting(), outputStream)) {
+        DecompiledSourceCache.Formatting settings = DecompiledSourceCache.getFormatting();
+        byte[] source = getCachedSource(c, qName, scriptPack, settings.key);
+        if (source != null) {
+            return source;
+        }
+        if (isSlow(c, qName, scriptPack)) {
+            return getFallbackSource(c, qName, scriptPack, settings);
+        }
+        String decompileKey = ScriptDigest.toHex(c.getScriptHash(qName, scriptPack)) + ";" + settings.key;
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = decompiling.putIfAbsent(decompileKey, future);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                // The other decompilation has failed, e.g. it has been interrupted, so the class is decompiled again.
+                return decompile(c, qName, scriptPack, settings);
+            }
+        }
+        try {
+            source = decompile(c, qName, scriptPack, settings);
+            future.complete(source);
+            return source;
+        } catch (IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            decompiling.remove(decompileKey, future);
+        }
+    }
+
+    @NotNull
+    private byte[] decompile(@NotNull Contents c, @NotNull String qName, @NotNull ScriptPack scriptPack,
+                             @NotNull DecompiledSourceCache.Formatting settings) throws IOException {
+        // The length of the evicted source is still known, so the buffer does not grow and is not trimmed then.
+        int knownLength = sourceCache.getLength(c.getScriptHash(qName, scriptPack), settings.key);
+        long limitMillis = DecompilerOptions.getScriptTimeLimitMillis();
+        long start = System.nanoTime();
+        byte[] source;
+        if (limitMillis > 0) {
+            Future<byte[]> task = decompiler.submit(() -> toSource(scriptPack, settings.codeFormatting, knownLength));
+            try {
+                source = task.get(limitMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // The decompiler checks the interruption while it builds the method graphs and stops.
+                task.cancel(true);
+                return getFallbackSource(c, qName, scriptPack, settings);
+            } catch (InterruptedException e) {
+                // The waiting requests of the same class get the error and decompile it themselves.
+                task.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(qName);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        } else {
+            source = toSource(scriptPack, settings.codeFormatting, knownLength);
+        }
+        DecompilerMetrics.getInstance().recordDecompile(System.nanoTime() - start, source.length);
+        cacheSource(c, qName, scriptPack, settings.key, source);
+        return source;
+    }
+
+    /**
+     * Gets the stub of the class with the declarations only, the method bodies are empty.
+     * The stubs are kept in the memory cache.
+     *
+     * @param qName The qualified name of the class.
+     * @return The stub source.
+     */
+    @NotNull
+    public byte[] getStubSource(@NotNull String qName) throws InterruptedIOException {
+        Contents c = contents();
+        ScriptPack scriptPack = c.getScriptPack(qName);
+        if (scriptPack == null) {
+            return new byte[0];
+        }
+        DecompiledSourceCache.Formatting settings = DecompiledSourceCache.getFormatting();
+        String stubKey = settings.stubKey;
+        byte[] scriptHash = c.getScriptHash(qName, scriptPack);
+        byte[] source = sourceCache.get(scriptHash, stubKey);
+        if (source == null) {
+            source = toStubSource(scriptPack, settings.codeFormatting);
+            DecompilerMetrics.getInstance().recordStub();
+            sourceCache.put(scriptHash, stubKey, source);
+        }
+        return source;
+    }
+
+    /**
+     * Checks if the class is served as a stub. In the stub mode the classes are served as stubs until their full
+     * sources are requested by {@link #requestFullSource(String)}, e.g. when they are opened in the editor.
+     *
+     * @param qName The qualified name of the class.
+     * @return True if the class is served as a stub.
+     */
+    public boolean isStub(@NotNull String qName) {
+        return DecompilerOptions.isStubModeEnabled() && !fullClasses.contains(qName);
+    }
+
+    /**
+     * Gets the length of the decompiled class from the in-memory or the persistent cache. It never decompiles the class.
+     *
+     * @param qName The qualified name of the class.
+     * @return The length in bytes or -1 if the class has not been decompiled yet.
+     */
+    public long getCachedLength(@NotNull String qName) {
+        Contents c = contents;
+        ScriptPackTree tree = c.getLoadedTree();
+        if (tree == null) {
+            return -1L;
+        }
+        ScriptPack scriptPack = tree.getScriptPack(tree.find(qName));
+        if (scriptPack == null) {
+            return 0L;
+        }
+        DecompiledSourceCache.Formatting settings = DecompiledSourceCache.getFormatting();
+        String formattingKey = settings.key;
+        byte[] scriptHash = c.getScriptHash(qName, scriptPack);
+        if (isStub(qName)) {
+            return sourceCache.getLength(scriptHash, settings.stubKey);
+        }
+        if (isSlow(c, qName, scriptPack)) {
+            return sourceCache.getLength(scriptHash, settings.fallbackKey);
+        }
+        int length = sourceCache.getLength(scriptHash, formattingKey);
+        if (length >= 0) {
+            return length;
+        }
+        PersistentSourceCache persistentCache = PersistentSourceCache.getInstance();
+        if (persistentCache != null && c.swfHash != null) {
+            byte[] persistentKey = PersistentSourceCache.getKey(c.swfHash, scriptHash, qName, formattingKey);
+            return persistentCache.getLength(persistentKey);
+        }
+        return -1L;
+    }
+
+    /**
+     * Gets the modification stamp of the class derived from its bytecode hash, so it does not change
+     * when the swf file is rebuilt but the class is not. The stub of the class has the inverted stamp,
+     * so the IDE reloads the class when its full source is requested.
+     *
+     * @param qName The qualified name of the class.
+     * @return The stamp or 0 if the swf file is still loading on the event dispatch thread.
+     */
+    public long getModificationStamp(@NotNull String qName) {
+        long stamp = contents.getModificationStamp(qName);
+        return stamp != 0L && isStub(qName) ? ~stamp : stamp;
+    }
+
+    /**
+     * Gets the time stamp of the class which is the time stamp of the swf file where the class has changed last time.
+     *
+     * @param qName The qualified name of the class.
+     * @return The time stamp.
+     */
+    public long getTimeStamp(@NotNull String qName) {
+        Contents c = contents;
+        return c.timeStamps.getOrDefault(qName, c.swfTimeStamp);
+    }
+
+    /**
+     * @return The time stamp of the swf file the current contents are loaded from.
+     */
+    public long getSwfTimeStamp() {
+        return contents.swfTimeStamp;
+    }
+
+    /**
+     * @return The qualified names of the classes which have exceeded the decompile time limit.
+     */
+    @NotNull
+    public Set<String> getSlowClassNames() {
+        return Collections.unmodifiableSet(slowScripts.keySet());
+    }
+
+    /**
+     * Switches the class from the stub to the full source. The class changes its content and its modification stamp,
+     * so the listener is notified and the file system fires the content change event for the class.
+     * Reading the class does not switch it, so all the readers get the same content until the switch.
+     *
+     * @param qName The qualified name of the class.
+     */
+    public void requestFullSource(@NotNull String qName) {
+        if (DecompilerOptions.isStubModeEnabled() && fullClasses.add(qName) && stubListener != null) {
+            long stamp = contents.getModificationStamp(qName);
+            if (stamp != 0L) {
+                stubListener.accept(Collections.singletonMap(qName, ~stamp));
+            }
+        }
+    }
+
+    /**
+     * Marks that the pre-decompilation of the swf file has been started.
+     *
+     * @return True if it has not been started before.
+     */
+    boolean markPreDecompileStarted() {
+        return preDecompileStarted.compareAndSet(false, true);
+    }
+
+    /**
+     * @return The number of the script packs of the loaded swf file, 0 if it is not loaded. It never loads the swf file.
+     */
+    int getLoadedScriptPackCount() {
+        ScriptPackTree tree = contents.tree;
+        return tree != null ? tree.getScriptPackCount() : 0;
+    }
+
+    /**
+     * Marks the access to the handler. The unloaded contents start loading when their swf or tree is requested.
+     *
+     * @return The current contents.
+     */
+    @NotNull
+    private Contents contents() {
+        lastAccessTime = System.currentTimeMillis();
+        return contents;
+    }
+
+    /**
+     * Gets the source from the memory cache or from the persistent cache.
+     */
+    @Nullable
+    private byte[] getCachedSource(@NotNull Contents c, @NotNull String qName, @NotNull ScriptPack scriptPack,
+                                   @NotNull String formattingKey) {
+        byte[] scriptHash = c.getScriptHash(qName, scriptPack);
+        byte[] source = sourceCache.get(scriptHash, formattingKey);
+        if (source != null) {
+            return source;
+        }
+        PersistentSourceCache persistentCache = PersistentSourceCache.getInstance();
+        if (persistentCache != null && c.swfHash != null) {
+            source = persistentCache.get(PersistentSourceCache.getKey(c.swfHash, scriptHash, qName, formattingKey));
+            if (source != null) {
+                sourceCache.put(scriptHash, formattingKey, source);
+                return source;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Puts the decompiled source to the memory cache and to the persistent cache.
+     */
+    private void cacheSource(@NotNull Contents c, @NotNull String qName, @NotNull ScriptPack scriptPack,
+                             @NotNull String formattingKey, @NotNull byte[] source) {
+        byte[] scriptHash = c.getScriptHash(qName, scriptPack);
+        sourceCache.put(scriptHash, formattingKey, source);
+        PersistentSourceCache persistentCache = PersistentSourceCache.getInstance();
+        if (persistentCache != null && c.swfHash != null) {
+            // The persistent keys are unchanged, so the sources stored before stay valid.
+            persistentCache.put(PersistentSourceCache.getKey(c.swfHash, scriptHash, qName, formattingKey), source);
+        }
+    }
+
+    @NotNull
+    private static byte[] toSource(@NotNull ScriptPack scriptPack, @NotNull CodeFormatting formatting, int knownLength)
+            throws InterruptedIOException {
+        try (DecompiledSwfTextWriter writer = knownLength > 0
+                ? new DecompiledSwfTextWriter(formatting, knownLength)
+                : new DecompiledSwfTextWriter(formatting)) {
 
             // Magic code that writes the decompiled AS file to the stream.
+            toSource(scriptPack, writer, ScriptExportMode.AS);
+            return writer.toByteArray();
+        }
+    }
+
+    private static void toSource(@NotNull ScriptPack scriptPack, @NotNull DecompiledSwfTextWriter writer,
+                                 @NotNull ScriptExportMode exportMode) throws InterruptedIOException {
+        try {
             scriptPack.toSource(writer,
                                 scriptPack.abc.script_info.get(scriptPack.scriptIndex).traits.traits,
-                                ScriptExportMode.AS, false);
-            writer.flush();
-            return outputStream.toByteArray();
+                                exportMode, false);
         } catch (InterruptedException e) {
-            e.printStackTrace();
-            return new byte[0];
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (UncheckedIOException e) {
+            throw toInterruptedIOException(e);
+        }
+    }
+
+    @NotNull
+    private static byte[] toStubSource(@NotNull ScriptPack scriptPack, @NotNull CodeFormatting formatting)
+            throws InterruptedIOException {
+        try (DecompiledSwfTextWriter writer = new DecompiledSwfTextWriter(formatting)) {
+            writeStub(scriptPack, writer);
+            return writer.toByteArray();
+        }
+    }
+
+    private static void writeStub(@NotNull ScriptPack scriptPack, @NotNull DecompiledSwfTextWriter writer)
+            throws InterruptedIOException {
+        try {
+            ScriptStubWriter.write(scriptPack, writer);
+        } catch (UncheckedIOException e) {
+            throw toInterruptedIOException(e);
+        }
+    }
+
+    /**
+     * Unwraps the interruption reported by {@link DecompiledSwfTextWriter#newLine()}, which cannot throw checked
+     * exceptions, and keeps the thread interrupted. Other failures are rethrown as they are.
+     */
+    @NotNull
+    private static InterruptedIOException toInterruptedIOException(@NotNull UncheckedIOException e) {
+        if (!(e.getCause() instanceof InterruptedIOException)) {
+            throw e;
         }
+        Thread.currentThread().interrupt();
+        return (InterruptedIOException) e.getCause();
+    }
+
+    /**
+     * @return True if the class has exceeded the decompile time limit before and its bytecode has not changed since.
+     */
+    private boolean isSlow(@NotNull Contents c, @NotNull String qName, @NotNull ScriptPack scriptPack) {
+        byte[] hash = slowScripts.get(qName);
+        return hash != null && Arrays.equals(hash, c.getScriptHash(qName, scriptPack));
     }
 
-    private ScriptPack getScriptPackByQName(@NotNull String qName) {
-        setScriptPacks();
-        return scriptPacks.stream()
-                .filter(s -> s.getClassPath().toString().equals(qName))
-                .findFirst().get();
+    /**
+     * Records the class that has exceeded the decompile time limit and gets its p-code or its stub with a marker comment.
+     * The fallback source is kept in the memory cache only and under its own key, so the class is decompiled again
+     * after the restart of the IDE in case the limit is raised, and the identical scripts of other swf files do not
+     * get the fallback instead of their decompiled source.
+     */
+    @NotNull
+    private byte[] getFallbackSource(@NotNull Contents c, @NotNull String qName, @NotNull ScriptPack scriptPack,
+                                     @NotNull DecompiledSourceCache.Formatting settings) throws IOException {
+        byte[] scriptHash = c.getScriptHash(qName, scriptPack);
+        slowScripts.put(qName, scriptHash);
+        byte[] cached = sourceCache.get(scriptHash, settings.fallbackKey);
+        if (cached != null) {
+            return cached;
+        }
+        DecompilerMetrics.getInstance().recordFallback();
+        boolean stubFallback = DecompilerOptions.isScriptTimeLimitStubFallback();
+        try (DecompiledSwfTextWriter writer = new DecompiledSwfTextWriter(settings.codeFormatting)) {
+            writer.appendNoHilight(MessageFormat.format(resources.getString(stubFallback
+                    ? "decompile.time.limit.stub.comment" : "decompile.time.limit.comment"),
+                    DecompilerOptions.getScriptTimeLimitMillis())).newLine();
+            if (stubFallback) {
+                writeStub(scriptPack, writer);
+            } else {
+                toSource(scriptPack, writer, ScriptExportMode.PCODE);
+            }
+            byte[] source = writer.toByteArray();
+            sourceCache.put(scriptHash, settings.fallbackKey, source);
+            return source;
+        }
     }
 
-    private void setScriptPacks() {
-        if (scriptPacks == null) {
-            scriptPacks = swf.getAS3Packs().stream().map(MyEntry::getValue).collect(Collectors.toList());
+    /**
+     * Compares the scripts of two versions of the swf file. If the context of the scripts looked up by ffdec in all
+     * the DoABC tags is the same, the scripts from the tags with identical bytes are unchanged. The other scripts
+     * are compared by their hashes which include the context, so all of them are changed if the context has changed.
+     *
+     * @return The qualified names of the changed, added and removed classes.
+     */
+    @NotNull
+    private static Set<String> getChangedClassNames(@NotNull Contents previous, @NotNull Contents next) {
+        ScriptPackTree nextTree = next.getTree();
+        Set<String> changed = new HashSet<>();
+        if (!previous.isStarted()) {
+            // The previous contents have been unloaded and the old swf file is gone,
+            // so only the hashes of the scripts which have been used are known.
+            for (String qName : previous.scriptHashes.keySet()) {
+                if (nextTree.getScriptPack(nextTree.find(qName)) == null) {
+                    changed.add(qName);
+                }
+            }
+            for (String qName : nextTree.getClassNames()) {
+                byte[] previousHash = previous.scriptHashes.get(qName);
+                ScriptPack nextPack = nextTree.getScriptPack(nextTree.find(qName));
+                if (previousHash == null || !Arrays.equals(previousHash, next.getScriptHash(qName, nextPack))) {
+                    changed.add(qName);
+                } else {
+                    next.timeStamps.put(qName, previous.timeStamps.getOrDefault(qName, previous.swfTimeStamp));
+                }
+            }
+            return changed;
+        }
+        ScriptPackTree previousTree = previous.getTree();
+        for (String qName : previousTree.getClassNames()) {
+            if (nextTree.getScriptPack(nextTree.find(qName)) == null) {
+                changed.add(qName);
+            }
+        }
+        for (String qName : nextTree.getClassNames()) {
+            ScriptPack previousPack = previousTree.getScriptPack(previousTree.find(qName));
+            ScriptPack nextPack = nextTree.getScriptPack(nextTree.find(qName));
+            if (previousPack == null) {
+                changed.add(qName);
+                continue;
+            }
+            byte[] previousTagHash = previous.getTagHash(previousPack);
+            if (previousTagHash != null && Arrays.equals(previous.contextHash, next.contextHash)
+                    && Arrays.equals(previousTagHash, next.getTagHash(nextPack))) {
+                byte[] scriptHash = previous.scriptHashes.get(qName);
+                if (scriptHash != null) {
+                    next.scriptHashes.putIfAbsent(qName, scriptHash);
+                }
+            } else if (!Arrays.equals(previous.getScriptHash(qName, previousPack), next.getScriptHash(qName, nextPack))) {
+                changed.add(qName);
+                continue;
+            }
+            next.timeStamps.put(qName, previous.timeStamps.getOrDefault(qName, previous.swfTimeStamp));
+        }
+        return changed;
+    }
+
+    /**
+     * The parsed swf file and the data derived from it. A new instance is created when the swf file is rebuilt
+     * or unloaded, the unloaded instance keeps the hashes and the time stamps and loads the swf file on demand.
+     */
+    private static final class Contents {
+
+        private final VirtualFile swfFile;
+        private final Runnable loadListener;
+        private final boolean notifiesLoadError;
+        private volatile CompletableFuture<SWF> swf;
+        private final long swfTimeStamp;
+        private volatile byte[] swfHash;
+        // The sizes of the swf read in the code-only mode, the code length is -1 if the swf is parsed as a whole.
+        private volatile long uncompressedLength;
+        private volatile long codeLength = -1;
+        private volatile CompletableFuture<ScriptPackTree> treeFuture;
+        // The built tree, it is read without waiting for the future.
+        private volatile ScriptPackTree tree;
+        // The hash of the definitions looked up by ffdec in all the DoABC tags, it is computed with the tree.
+        private volatile byte[] contextHash;
+        private final Map<String, byte[]> scriptHashes = new ConcurrentHashMap<>();
+        private final Map<ABC, byte[]> tagHashes = Collections.synchronizedMap(new IdentityHashMap<>());
+        // The time stamps of the unchanged classes inherited from the previous contents.
+        private final Map<String, Long> timeStamps = new ConcurrentHashMap<>();
+
+        private Contents(@NotNull VirtualFile swfFile, @Nullable Runnable loadListener, boolean notifiesLoadError) {
+            this.swfFile = swfFile;
+            this.loadListener = loadListener;
+            this.notifiesLoadError = notifiesLoadError;
+            this.swfTimeStamp = swfFile.getTimeStamp();
+        }
+
+        /**
+         * Constructs the unloaded copy of the contents.
+         */
+        private Contents(@NotNull Contents contents) {
+            this.swfFile = contents.swfFile;
+            this.loadListener = contents.loadListener;
+            this.notifiesLoadError = contents.notifiesLoadError;
+            this.swfTimeStamp = contents.swfTimeStamp;
+            this.scriptHashes.putAll(contents.scriptHashes);
+            this.timeStamps.putAll(contents.timeStamps);
+        }
+
+        private boolean isStarted() {
+            return swf != null;
+        }
+
+        /**
+         * @return The future of the swf, the loading starts on the first call.
+         */
+        @NotNull
+        private CompletableFuture<SWF> getSwfFuture() {
+            CompletableFuture<SWF> result = swf;
+            if (result == null) {
+                synchronized (this) {
+                    result = swf;
+                    if (result == null) {
+                        CompletableFuture<SWF> loading = CompletableFuture.supplyAsync(this::load, loader);
+                        // The tree is built on the loader thread as a part of the loading,
+                        // so the event dispatch thread never parses the DoABC tags.
+                        treeFuture = loading.handleAsync((s, e) -> buildTree(loading), loader);
+                        if (loadListener != null) {
+                            treeFuture.whenComplete((t, e) -> loadListener.run());
+                        }
+                        swf = result = loading;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return The future of the tree which is completed after the swf is loaded, the loading starts on the first call.
+         */
+        @NotNull
+        private CompletableFuture<ScriptPackTree> getTreeFuture() {
+            getSwfFuture();
+            return treeFuture;
+        }
+
+        @Nullable
+        private ScriptPack getScriptPack(@NotNull String qName) {
+            ScriptPackTree tree = getTree();
+            return tree.getScriptPack(tree.find(qName));
+        }
+
+        @NotNull
+        private byte[] getScriptHash(@NotNull String qName, @NotNull ScriptPack scriptPack) {
+            return scriptHashes.computeIfAbsent(qName, n -> ScriptDigest.compute(scriptPack, contextHash));
+        }
+
+        private long getModificationStamp(@NotNull String qName) {
+            if (!isStarted()) {
+                byte[] hash = scriptHashes.get(qName);
+                return hash != null ? ScriptDigest.toStamp(hash) : 0L;
+            }
+            ScriptPackTree tree = getLoadedTree();
+            ScriptPack scriptPack = tree != null ? tree.getScriptPack(tree.find(qName)) : null;
+            return scriptPack != null ? ScriptDigest.toStamp(getScriptHash(qName, scriptPack)) : 0L;
+        }
+
+        @Nullable
+        private byte[] getTagHash(@NotNull ScriptPack scriptPack) {
+            return tagHashes.computeIfAbsent(scriptPack.abc, ScriptDigest::computeTag);
+        }
+
+        /**
+         * @return The tree or null if the swf file is still loading or its tree is still being built
+         * and the current thread is the event dispatch thread.
+         */
+        @Nullable
+        private ScriptPackTree getLoadedTree() {
+            if (tree != null || !EventQueue.isDispatchThread() || getTreeFuture().isDone()) {
+                return getTree();
+            }
+            return null;
+        }
+
+        /**
+         * Gets the tree of the script packs, waits for the swf file to be loaded if needed.
+         * The tree is empty if the swf file fails to load.
+         */
+        @NotNull
+        private ScriptPackTree getTree() {
+            ScriptPackTree result = tree;
+            if (result != null) {
+                return result;
+            }
+            try {
+                return getTreeFuture().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new ScriptPackTree(Collections.emptyList());
+            } catch (ExecutionException e) {
+                throw new CompletionException(e.getCause());
+            }
+        }
+
+        @NotNull
+        private ScriptPackTree buildTree(@NotNull CompletableFuture<SWF> swfFuture) {
+            List<ScriptPack> scriptPacks;
+            try {
+                SWF swf = swfFuture.join();
+                SwfCodeReader.materialize(swf, DecompilerOptions.isParallelAbcParseEnabled() ? parallelPool : null);
+                scriptPacks = swf.getAS3Packs().stream().map(MyEntry::getValue).collect(Collectors.toList());
+                contextHash = ScriptDigest.computeContext(swf.getAbcList());
+            } catch (CompletionException e) {
+                e.printStackTrace();
+                if (notifiesLoadError) {
+                    notifyLoadError(swfFile, e.getCause() != null ? e.getCause() : e);
+                }
+                scriptPacks = Collections.emptyList();
+                contextHash = new byte[0];
+            }
+            ScriptPackTree result = new ScriptPackTree(scriptPacks);
+            DecompilerMetrics.getInstance().recordScriptPacks(scriptPacks.size());
+            tree = result;
+            return result;
+        }
+
+        @NotNull
+        private SWF load() {
+            MessageDigest digest = ScriptDigest.newSha1();
+            long start = System.nanoTime();
+            try (InputStream inputStream = new DigestInputStream(openStream(swfFile), digest)) {
+                SWF result;
+                if (DecompilerOptions.isCodeOnlyLoadEnabled()) {
+                    result = SwfCodeReader.read(inputStream);
+                    uncompressedLength = result.uncompressedData.length;
+                    codeLength = SwfCodeReader.getCodeLength(result);
+                } else {
+                    result = new SWF(inputStream, false);
+                }
+                swfHash = digest.digest();
+                DecompilerMetrics.getInstance().recordParse(System.nanoTime() - start);
+                return result;
+            } catch (IOException | InterruptedException e) {
+                throw new CompletionException(e);
+            }
+        }
+    }
+
+    /**
+     * Shows the balloon notification about the swf file which has failed to load, its classes look like an empty package.
+     */
+    private static void notifyLoadError(@NotNull VirtualFile swfFile, @NotNull Throwable error) {
+        // There is no application when the handler is used outside of the IDE, e.g. by the batch export.
+        if (ApplicationManager.getApplication() != null) {
+            Notifications.Bus.notify(new Notification(NOTIFICATION_GROUP, resources.getString("notification.title"),
+                    MessageFormat.format(resources.getString("swf.loading.error"), swfFile.getName(), error.getMessage()),
+                    NotificationType.ERROR));
+        }
+    }
+
+    /**
+     * Opens the swc archives through their library.swf entry, the swf files through their input streams.
+     */
+    @NotNull
+    static InputStream openStream(@NotNull VirtualFile swfFile) throws IOException {
+        if (SwcArchive.isSwcFile(swfFile)) {
+            return swfFile.isInLocalFileSystem()
+                    ? SwcArchive.openLibrary(VfsUtilCore.virtualToIoFile(swfFile))
+                    : SwcArchive.openLibrary(swfFile.getInputStream());
         }
+        return swfFile.getInputStream();
     }
 }
@@ -0,0 +1,102 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.LowMemoryWatcher;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the estimated heap size of the parsed swf files within the budget. The least recently used handlers
+ * whose classes are not open in editors are unloaded when the budget is exceeded, all of them are unloaded
+ * when the heap is low. An unloaded handler loads its swf file again on the next access.
+ *
+ * @author epolyakov
+ */
+final class SwfMemoryManager {
+
+    private final Supplier<Collection<SwfHandler>> handlers;
+    private final AtomicBoolean trimScheduled = new AtomicBoolean();
+
+    // LowMemoryWatcher keeps the watchers weakly, so the reference is held here.
+    @SuppressWarnings({"FieldCanBeLocal", "unused"})
+    private final LowMemoryWatcher lowMemoryWatcher;
+
+    SwfMemoryManager(@NotNull Supplier<Collection<SwfHandler>> handlers) {
+        this.handlers = handlers;
+        this.lowMemoryWatcher = LowMemoryWatcher.register(() -> trim(0L));
+    }
+
+    /**
+     * Trims the handlers on a pooled thread, the calls made while the trimming is scheduled are merged.
+     */
+    void trimLater() {
+        Application application = ApplicationManager.getApplication();
+        // There is no application when the handlers are used outside of the IDE, e.g. by the benchmarks.
+        if (application != null && trimScheduled.compareAndSet(false, true)) {
+            application.executeOnPooledThread(() -> {
+                trimScheduled.set(false);
+                trim(DecompilerOptions.getHandlersMaxBytes());
+            });
+        }
+    }
+
+    /**
+     * Unloads the least recently used handlers until the estimated size is within the given budget.
+     *
+     * @param maxBytes The budget in bytes.
+     */
+    void trim(long maxBytes) {
+        List<SwfHandler> loaded = handlers.get().stream()
+                .filter(h -> h.getRetainedBytes() > 0)
+                .sorted(Comparator.comparingLong(SwfHandler::getLastAccessTime))
+                .collect(Collectors.toList());
+        long total = loaded.stream().mapToLong(SwfHandler::getRetainedBytes).sum();
+        if (total <= maxBytes) {
+            return;
+        }
+        Set<SwfHandler> pinned = getHandlersWithOpenEditors();
+        for (SwfHandler handler : loaded) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (!pinned.contains(handler)) {
+                total -= handler.getRetainedBytes();
+                handler.unload();
+            }
+        }
+    }
+
+    @NotNull
+    private static Set<SwfHandler> getHandlersWithOpenEditors() {
+        ProjectManager projectManager = ProjectManager.getInstance();
+        if (projectManager == null) {
+            return Collections.emptySet();
+        }
+        return ApplicationManager.getApplication().runReadAction((Computable<Set<SwfHandler>>) () -> {
+            Set<SwfHandler> result = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Project project : projectManager.getOpenProjects()) {
+                for (VirtualFile file : FileEditorManager.getInstance(project).getOpenFiles()) {
+                    if (file instanceof DecompiledSwfFile) {
+                        result.add(((DecompiledSwfFile) file).getHandler());
+                    }
+                }
+            }
+            return result;
+        });
+    }
+}
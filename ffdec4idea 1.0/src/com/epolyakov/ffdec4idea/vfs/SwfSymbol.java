@@ -0,0 +1,88 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The declaration of a class, an interface or a member within a swf file, it is taken from the ABC traits.
+ *
+ * @author epolyakov
+ */
+public final class SwfSymbol {
+
+    public enum Kind {
+        CLASS, INTERFACE, FUNCTION, METHOD, PROPERTY, FIELD, CONSTANT
+    }
+
+    private final Kind kind;
+    private final String name;
+    private final String classQName;
+
+    /**
+     * @param kind       The kind of the declaration.
+     * @param name       The simple name of the declaration.
+     * @param classQName The qualified name of the class that declares the symbol or of the class itself.
+     */
+    public SwfSymbol(@NotNull Kind kind, @NotNull String name, @NotNull String classQName) {
+        this.kind = kind;
+        this.name = name;
+        this.classQName = classQName;
+    }
+
+    @NotNull
+    public Kind getKind() {
+        return kind;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public String getClassQName() {
+        return classQName;
+    }
+
+    public boolean isClass() {
+        return kind == Kind.CLASS || kind == Kind.INTERFACE;
+    }
+
+    /**
+     * Finds the declaration in the decompiled source or in the stub of the class.
+     *
+     * @param text The source text.
+     * @return The offset of the declaration or 0 if it is not found.
+     */
+    public int findDeclaration(@NotNull CharSequence text) {
+        String source = text.toString();
+        int index;
+        switch (kind) {
+            case CLASS:
+                index = source.indexOf("class " + name);
+                break;
+            case INTERFACE:
+                index = source.indexOf("interface " + name);
+                break;
+            case PROPERTY:
+                index = source.indexOf("function get " + name + "(");
+                if (index < 0) {
+                    index = source.indexOf("function set " + name + "(");
+                }
+                break;
+            case FIELD:
+                index = source.indexOf("var " + name + ":");
+                break;
+            case CONSTANT:
+                index = source.indexOf("const " + name + ":");
+                break;
+            default:
+                index = source.indexOf("function " + name + "(");
+        }
+        return Math.max(index, 0);
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + classQName + (isClass() ? "" : "." + name);
+    }
+}
@@ -0,0 +1,277 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.FilenameIndex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+/**
+ * The index of the classes and the members of the swf files in the project, it is built from the ABC traits
+ * without decompiling anything. The symbols of each swf file are stored in the system directory of the IDE
+ * in a file named by the hash of the swf file bytes, so an unchanged swf file is not parsed again after the restart.
+ * When the swf file changes, only the symbols of its changed classes are extracted again and the file of its previous
+ * version is deleted. The swf files which are not open are parsed for indexing only, no handlers are created for them.
+ *
+ * @author epolyakov
+ */
+public final class SwfSymbolIndex {
+
+    private static final String FILE_SUFFIX = ".symbols";
+    // The number of the stored files, the least recently used files are deleted over it, e.g. the files of the swf files
+    // which have changed or have been deleted while the IDE was closed.
+    private static final int MAX_FILES = 1024;
+
+    private static volatile SwfSymbolIndex instance;
+
+    private final File directory;
+    // The symbols of the swf files by their paths with the stamps of the swf files they are built from.
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> indexing = ConcurrentHashMap.newKeySet();
+
+    SwfSymbolIndex(@NotNull File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return The index in the system directory of the IDE.
+     */
+    @NotNull
+    public static SwfSymbolIndex getInstance() {
+        if (instance == null) {
+            synchronized (SwfSymbolIndex.class) {
+                if (instance == null) {
+                    instance = new SwfSymbolIndex(new File(PathManager.getSystemPath(), "ffdec4idea/symbols"));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the names of the symbols of the swf files in the project. The swf files which have not been indexed yet
+     * are indexed in background and their symbols appear on the next call.
+     *
+     * @param project     The project.
+     * @param classesOnly True to get the names of the classes and the interfaces only.
+     * @return The simple names of the symbols.
+     */
+    @NotNull
+    public Set<String> getNames(@NotNull Project project, boolean classesOnly) {
+        Set<String> names = new HashSet<>();
+        for (VirtualFile swfFile : getSwfFiles(project)) {
+            SwfSymbols symbols = getSymbols(swfFile);
+            if (symbols != null) {
+                names.addAll(symbols.getNames(classesOnly));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Processes the symbols with the name in the swf files of the project.
+     *
+     * @param project     The project.
+     * @param name        The simple name of the symbols.
+     * @param classesOnly True to process the classes and the interfaces only.
+     * @param processor   The processor that gets the swf file and the symbol.
+     */
+    public void processSymbols(@NotNull Project project, @NotNull String name, boolean classesOnly,
+                               @NotNull BiConsumer<VirtualFile, SwfSymbol> processor) {
+        for (VirtualFile swfFile : getSwfFiles(project)) {
+            SwfSymbols symbols = getSymbols(swfFile);
+            if (symbols != null) {
+                for (SwfSymbol symbol : symbols.getSymbols(name)) {
+                    if (!classesOnly || symbol.isClass()) {
+                        processor.accept(swfFile, symbol);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the symbols of the swf file. If the swf file has changed since it was indexed, the indexing is started
+     * in background and the previous symbols are returned until it ends.
+     *
+     * @param swfFile The swf file.
+     * @return The symbols or null if the swf file has not been indexed yet.
+     */
+    @Nullable
+    SwfSymbols getSymbols(@NotNull VirtualFile swfFile) {
+        Entry entry = entries.get(swfFile.getPath());
+        if (entry == null || entry.timeStamp != swfFile.getTimeStamp() || entry.length != swfFile.getLength()) {
+            indexLater(swfFile);
+        }
+        return entry != null ? entry.symbols : null;
+    }
+
+    /**
+     * Updates the symbols of the indexed swf file from its reloaded handler, the symbols of the unchanged classes
+     * are reused.
+     *
+     * @param swfFile The swf file.
+     * @param handler The handler of the swf file.
+     */
+    void updateLater(@NotNull VirtualFile swfFile, @NotNull SwfHandler handler) {
+        Entry entry = entries.get(swfFile.getPath());
+        if (entry != null && indexing.add(swfFile.getPath())) {
+            ApplicationManager.getApplication().executeOnPooledThread(() -> {
+                try {
+                    long timeStamp = swfFile.getTimeStamp();
+                    long length = swfFile.getLength();
+                    update(swfFile, handler.getSymbols(entry.symbols), timeStamp, length);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    indexing.remove(swfFile.getPath());
+                }
+            });
+        }
+    }
+
+    private void indexLater(@NotNull VirtualFile swfFile) {
+        if (indexing.add(swfFile.getPath())) {
+            ApplicationManager.getApplication().executeOnPooledThread(() -> {
+                try {
+                    index(swfFile);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    indexing.remove(swfFile.getPath());
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the stored symbols of the swf file by its hash or extracts them from the loaded swf file.
+     */
+    private void index(@NotNull VirtualFile swfFile) throws IOException {
+        long timeStamp = swfFile.getTimeStamp();
+        long length = swfFile.getLength();
+        byte[] swfHash = computeHash(swfFile);
+        File file = getFile(swfHash);
+        SwfSymbols symbols = SwfSymbols.read(file);
+        if (symbols != null) {
+            // The time of the last use of the file, the least recently used files are deleted first.
+            file.setLastModified(System.currentTimeMillis());
+            update(swfFile, new Entry(symbols, timeStamp, length));
+            return;
+        }
+        Entry previous = entries.get(swfFile.getPath());
+        SwfSymbols previousSymbols = previous != null ? previous.symbols : null;
+        SwfHandler handler = DecompiledSwfFileSystem.getInstance().findHandler(swfFile);
+        symbols = handler != null ? handler.getSymbols(previousSymbols) : SwfHandler.readSymbols(swfFile, previousSymbols);
+        // The handler may still serve the previous version of the swf file, its reload updates the symbols then.
+        if (Arrays.equals(symbols.getSwfHash(), swfHash)) {
+            update(swfFile, symbols, timeStamp, length);
+        }
+    }
+
+    private void update(@NotNull VirtualFile swfFile, @NotNull SwfSymbols symbols, long timeStamp, long length)
+            throws IOException {
+        symbols.write(getFile(symbols.getSwfHash()));
+        update(swfFile, new Entry(symbols, timeStamp, length));
+        trim();
+    }
+
+    /**
+     * Replaces the entry of the swf file and deletes the file of its previous version unless another swf file
+     * in the index has the same bytes.
+     */
+    private void update(@NotNull VirtualFile swfFile, @NotNull Entry entry) {
+        Entry previous = entries.put(swfFile.getPath(), entry);
+        if (previous == null) {
+            return;
+        }
+        byte[] previousHash = previous.symbols.getSwfHash();
+        if (Arrays.equals(previousHash, entry.symbols.getSwfHash())) {
+            return;
+        }
+        for (Entry other : entries.values()) {
+            if (Arrays.equals(previousHash, other.symbols.getSwfHash())) {
+                return;
+            }
+        }
+        getFile(previousHash).delete();
+    }
+
+    /**
+     * Deletes the least recently used files over {@link #MAX_FILES}, the files of the indexed swf files are kept.
+     */
+    private void trim() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Set<String> used = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            used.add(getFile(entry.symbols.getSwfHash()).getName());
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        int count = files.length;
+        for (int i = 0; i < files.length && count > MAX_FILES; i++) {
+            if (!used.contains(files[i].getName()) && files[i].delete()) {
+                count--;
+            }
+        }
+    }
+
+    /**
+     * @return The swf files and the swc archives in the project.
+     */
+    @NotNull
+    private static List<VirtualFile> getSwfFiles(@NotNull Project project) {
+        List<VirtualFile> files = new ArrayList<>(FilenameIndex.getAllFilesByExt(project, "swf"));
+        files.addAll(FilenameIndex.getAllFilesByExt(project, SwcArchive.EXTENSION));
+        return files;
+    }
+
+    @NotNull
+    private File getFile(@NotNull byte[] swfHash) {
+        return new File(directory, ScriptDigest.toHex(swfHash) + FILE_SUFFIX);
+    }
+
+    @NotNull
+    private static byte[] computeHash(@NotNull VirtualFile swfFile) throws IOException {
+        MessageDigest digest = ScriptDigest.newSha1();
+        try (InputStream in = new DigestInputStream(SwfHandler.openStream(swfFile), digest)) {
+            byte[] bytes = new byte[64 * 1024];
+            while (in.read(bytes) >= 0) {
+                // The digest is updated while reading.
+            }
+        }
+        return digest.digest();
+    }
+
+    private static final class Entry {
+
+        private final SwfSymbols symbols;
+        private final long timeStamp;
+        private final long length;
+
+        private Entry(@NotNull SwfSymbols symbols, long timeStamp, long length) {
+            this.symbols = symbols;
+            this.timeStamp = timeStamp;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.epolyakov.ffdec4idea.vfs;
+
+import com.jpexs.decompiler.flash.abc.ABC;
+import com.jpexs.decompiler.flash.abc.ScriptPack;
+import com.jpexs.decompiler.flash.abc.avm2.AVM2ConstantPool;
+import com.jpexs.decompiler.flash.abc.types.InstanceInfo;
+import com.jpexs.decompiler.flash.abc.types.traits.Trait;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitClass;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitFunction;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitMethodGetterSetter;
+import com.jpexs.decompiler.flash.abc.types.traits.TraitSlotConst;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The symbols of all the classes of a swf file. The symbols are grouped by the classes together with the hashes
+ * of their bytecode, so the symbols of the unchanged classes are reused when the swf file is rebuilt.
+ *
+ * @author epolyakov
+ */
+final class SwfSymbols {
+
+    private static final int MAGIC = 0x46465359;
+    private static final int VERSION = 1;
+    private static final SwfSymbol.Kind[] kinds = SwfSymbol.Kind.values();
+
+    private final byte[] swfHash;
+    private final Map<String, ClassSymbols> classes;
+    private volatile Map<String, List<SwfSymbol>> symbolsByName;
+    private volatile Set<String> classNames;
+
+    SwfSymbols(@NotNull byte[] swfHash, @NotNull Map<String, ClassSymbols> classes) {
+        this.swfHash = swfHash;
+        this.classes = classes;
+    }
+
+    @NotNull
+    byte[] getSwfHash() {
+        return swfHash;
+    }
+
+    int getClassCount() {
+        return classes.size();
+    }
+
+    /**
+     * Gets the symbols of the class if its bytecode has the given hash.
+     *
+     * @return The symbols or null if the class is not known or it has changed.
+     */
+    @Nullable
+    ClassSymbols getClassSymbols(@NotNull String qName, @NotNull byte[] scriptHash) {
+        ClassSymbols symbols = classes.get(qName);
+        return symbols != null && Arrays.equals(symbols.scriptHash, scriptHash) ? symbols : null;
+    }
+
+    /**
+     * @param classesOnly True to get the names of the classes and the interfaces only.
+     * @return The simple names of the symbols.
+     */
+    @NotNull
+    Set<String> getNames(boolean classesOnly) {
+        return classesOnly ? getClassNames() : getSymbolsByName().keySet();
+    }
+
+    /**
+     * @return The symbols with the simple name.
+     */
+    @NotNull
+    List<SwfSymbol> getSymbols(@NotNull String name) {
+        List<SwfSymbol> symbols = getSymbolsByName().get(name);
+        return symbols != null ? symbols : Collections.emptyList();
+    }
+
+    @NotNull
+    private Map<String, List<SwfSymbol>> getSymbolsByName() {
+        Map<String, List<SwfSymbol>> result = symbolsByName;
+        if (result == null) {
+            result = new HashMap<>();
+            for (ClassSymbols classSymbols : classes.values()) {
+                for (SwfSymbol symbol : classSymbols.symbols) {
+                    result.computeIfAbsent(symbol.getName(), n -> new ArrayList<>(1)).add(symbol);
+                }
+            }
+            symbolsByName = result;
+        }
+        return result;
+    }
+
+    @NotNull
+    private Set<String> getClassNames() {
+        Set<String> result = classNames;
+        if (result == null) {
+            result = new LinkedHashSet<>();
+            for (ClassSymbols classSymbols : classes.values()) {
+                for (SwfSymbol symbol : classSymbols.symbols) {
+                    if (symbol.isClass()) {
+                        result.add(symbol.getName());
+                    }
+                }
+            }
+            classNames = result;
+        }
+        return result;
+    }
+
+    /**
+     * Extracts the symbols of the script pack from the ABC traits, the method bodies are not touched.
+     *
+     * @param qName      The qualified name of the class.
+     * @param scriptPack The script pack of the class.
+     * @param scriptHash The hash of the bytecode of the script pack.
+     * @return The symbols of the class.
+     */
+    @NotNull
+    static ClassSymbols extract(@NotNull String qName, @NotNull ScriptPack scriptPack, @NotNull byte[] scriptHash) {
+        ABC abc = scriptPack.abc;
+        List<SwfSymbol> symbols = new ArrayList<>();
+        List<Trait> traits = abc.script_info.get(scriptPack.scriptIndex).traits.traits;
+        for (int traitIndex : scriptPack.traitIndices) {
+            Trait trait = traits.get(traitIndex);
+            if (trait instanceof TraitClass) {
+                int classIndex = ((TraitClass) trait).class_info;
+                InstanceInfo instanceInfo = abc.instance_info.get(classIndex);
+                symbols.add(new SwfSymbol(instanceInfo.isInterface() ? SwfSymbol.Kind.INTERFACE : SwfSymbol.Kind.CLASS,
+                        getName(abc, trait), qName));
+                addMembers(abc, abc.class_info.get(classIndex).static_traits.traits, qName, symbols);
+                addMembers(abc, instanceInfo.instance_traits.traits, qName, symbols);
+            } else {
+                addMembers(abc, Collections.singletonList(trait), qName, symbols);
+            }
+        }
+        return new ClassSymbols(scriptHash, symbols.toArray(new SwfSymbol[symbols.size()]));
+    }
+
+    private static void addMembers(@NotNull ABC abc, @NotNull List<Trait> traits, @NotNull String qName,
+                                   @NotNull List<SwfSymbol> symbols) {
+        for (Trait trait : traits) {
+            SwfSymbol.Kind kind;
+            if (trait instanceof TraitSlotConst) {
+                TraitSlotConst slot = (TraitSlotConst) trait;
+                if (slot.isNamespace()) {
+                    continue;
+                }
+                kind = slot.isConst() ? SwfSymbol.Kind.CONSTANT : SwfSymbol.Kind.FIELD;
+            } else if (trait instanceof TraitMethodGetterSetter) {
+                kind = trait.kindType == Trait.TRAIT_METHOD ? SwfSymbol.Kind.METHOD : SwfSymbol.Kind.PROPERTY;
+            } else if (trait instanceof TraitFunction) {
+                kind = SwfSymbol.Kind.FUNCTION;
+            } else {
+                continue;
+            }
+            String name = getName(abc, trait);
+            // The getter and the setter of a property are the same symbol.
+            if (kind != SwfSymbol.Kind.PROPERTY || symbols.stream().noneMatch(
+                    s -> s.getKind() == SwfSymbol.Kind.PROPERTY && s.getName().equals(name))) {
+                symbols.add(new SwfSymbol(kind, name, qName));
+            }
+        }
+    }
+
+    @NotNull
+    private static String getName(@NotNull ABC abc, @NotNull Trait trait) {
+        AVM2ConstantPool constants = abc.constants;
+        return trait.getName(abc).getName(constants, null, false).intern();
+    }
+
+    /**
+     * Writes the symbols to the file, the file is replaced atomically.
+     */
+    void write(@NotNull File file) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeBytes(out, swfHash);
+            out.writeInt(classes.size());
+            for (Map.Entry<String, ClassSymbols> entry : classes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeBytes(out, entry.getValue().scriptHash);
+                SwfSymbol[] symbols = entry.getValue().symbols;
+                out.writeInt(symbols.length);
+                for (SwfSymbol symbol : symbols) {
+                    out.writeByte(symbol.getKind().ordinal());
+                    out.writeUTF(symbol.getName());
+                }
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the symbols from the file.
+     *
+     * @return The symbols or null if the file does not exist or has another version.
+     */
+    @Nullable
+    static SwfSymbols read(@NotNull File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            byte[] swfHash = readBytes(in);
+            int classCount = in.readInt();
+            Map<String, ClassSymbols> classes = new LinkedHashMap<>(classCount * 2);
+            for (int i = 0; i < classCount; i++) {
+                String qName = in.readUTF();
+                byte[] scriptHash = readBytes(in);
+                SwfSymbol[] symbols = new SwfSymbol[in.readInt()];
+                for (int j = 0; j < symbols.length; j++) {
+                    SwfSymbol.Kind kind = kinds[in.readByte()];
+                    symbols[j] = new SwfSymbol(kind, in.readUTF().intern(), qName);
+                }
+                classes.put(qName, new ClassSymbols(scriptHash, symbols));
+            }
+            return new SwfSymbols(swfHash, classes);
+        }
+    }
+
+    private static void writeBytes(@NotNull DataOutputStream out, @NotNull byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    @NotNull
+    private static byte[] readBytes(@NotNull DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * The symbols of a class and the hash of its bytecode.
+     */
+    static final class ClassSymbols {
+
+        private final byte[] scriptHash;
+        private final SwfSymbol[] symbols;
+
+        private ClassSymbols(@NotNull byte[] scriptHash, @NotNull SwfSymbol[] symbols) {
+            this.scriptHash = scriptHash;
+            this.symbols = symbols;
+        }
+    }
+}